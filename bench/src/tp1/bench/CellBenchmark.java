@@ -0,0 +1,64 @@
+package tp1.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import tp1.util.Cell;
+import tp1.util.CellRange;
+import tp1.util.InvalidCellIdException;
+
+/**
+ * Conversions between cell names and indices, and range parsing and extraction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CellBenchmark {
+
+	@Param({ "A1", "Z99", "AB1000" })
+	public String cell;
+
+	@Param({ "A1:B2", "C10:Z100" })
+	public String range;
+
+	private int row, col;
+	private CellRange parsed;
+	private String[][] values;
+
+	@Setup
+	public void setup() throws InvalidCellIdException {
+		Pair<Integer, Integer> indexes = Cell.CellId2Indexes(cell);
+		row = indexes.getLeft();
+		col = indexes.getRight();
+
+		parsed = new CellRange(range);
+		values = new String[parsed.botRow + 1][parsed.botCol + 1];
+		for (String[] r : values)
+			java.util.Arrays.fill(r, "1");
+	}
+
+	@Benchmark
+	public Pair<Integer, Integer> cellId2Indexes() throws InvalidCellIdException {
+		return Cell.CellId2Indexes(cell);
+	}
+
+	@Benchmark
+	public String indices2CellId() {
+		return Cell.Indices2CellId(row, col);
+	}
+
+	@Benchmark
+	public CellRange cellRange() {
+		return new CellRange(range);
+	}
+
+	@Benchmark
+	public String[][] extractRangeValuesFrom() {
+		return parsed.extractRangeValuesFrom(values);
+	}
+}
@@ -0,0 +1,58 @@
+package tp1.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tp1.api.Spreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.impl.engine.NativeSpreadsheetEngine;
+import tp1.impl.engine.SpreadsheetEngineImpl;
+import tp1.util.CellRange;
+
+/**
+ * Computation of the values of a whole sheet, and of a range of it, by each engine, across sheet sizes
+ * and formula densities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+
+	@Param({ "gembox", "native" })
+	public String engine;
+
+	@Param({ "10", "100", "1000" })
+	public int rows;
+
+	@Param({ "26" })
+	public int columns;
+
+	@Param({ "0.0", "0.25", "0.75" })
+	public double formulas;
+
+	private SpreadsheetEngine spreadsheetEngine;
+	private Spreadsheet sheet;
+	private CellRange range;
+
+	@Setup
+	public void setup() {
+		spreadsheetEngine = engine.equals("native") ? NativeSpreadsheetEngine.getInstance() : SpreadsheetEngineImpl.getInstance();
+		sheet = Sheets.generate(rows, columns, 0.5, formulas);
+		// the last rows, which depend on every row before them
+		range = new CellRange(Math.max(0, rows - 5), 0, rows - 1, 4);
+	}
+
+	@Benchmark
+	public String[][] computeSpreadsheetValues() {
+		return spreadsheetEngine.computeSpreadsheetValues(sheet);
+	}
+
+	@Benchmark
+	public String[][] computeRangeValues() {
+		return spreadsheetEngine.computeRangeValues(sheet, range);
+	}
+}
@@ -0,0 +1,51 @@
+package tp1.bench;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import tp1.api.Spreadsheet;
+import tp1.util.Cell;
+
+/**
+ * Generates the sheets the benchmarks run on, always the same for the same parameters.
+ */
+public class Sheets {
+
+	static final String[] FORMULAS = { "=%s+%s", "=%s*2", "=sum(%s:%s)", "=if(%s>10,%s,0)" };
+
+	/**
+	 * @param fill - the fraction of the cells that are not empty
+	 * @param formulas - the fraction of the non-empty cells that are formulas, each referencing cells of
+	 * the previous row, so that the sheet has no reference cycles
+	 */
+	public static Spreadsheet generate(int rows, int columns, double fill, double formulas) {
+		Random random = new Random(rows * 31L + columns);
+
+		Spreadsheet sheet = new Spreadsheet();
+		sheet.setSheetId("bench");
+		sheet.setOwner("bench@bench");
+		sheet.setSheetURL("bench#id#bench");
+		sheet.setRows(rows);
+		sheet.setColumns(columns);
+		sheet.setSharedWith(new HashSet<>());
+
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < columns; col++) {
+				if (random.nextDouble() >= fill)
+					continue;
+
+				String rawValue;
+				if (row > 0 && random.nextDouble() < formulas) {
+					String a = Cell.Indices2CellId(row - 1, random.nextInt(columns));
+					String b = Cell.Indices2CellId(row - 1, random.nextInt(columns));
+					rawValue = String.format(FORMULAS[random.nextInt(FORMULAS.length)], a, b);
+				} else if (random.nextBoolean())
+					rawValue = Integer.toString(random.nextInt(1000));
+				else
+					rawValue = "text" + random.nextInt(100);
+
+				sheet.setCellRawValue(row, col, rawValue);
+			}
+		return sheet;
+	}
+}
@@ -0,0 +1,58 @@
+package tp1.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tp1.api.Spreadsheet;
+
+/**
+ * JSON serialization of sheets, as done by the REST servers and clients, either as the dense rawValues
+ * served by default or as the non-empty cells asked for by sparse clients.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpreadsheetJsonBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int rows;
+
+	@Param({ "26" })
+	public int columns;
+
+	@Param({ "0.1", "0.9" })
+	public double fill;
+
+	@Param({ "false", "true" })
+	public boolean sparse;
+
+	private final ObjectMapper json = new ObjectMapper();
+
+	private Spreadsheet sheet;
+	private byte[] serialized;
+
+	@Setup
+	public void setup() throws IOException {
+		sheet = Sheets.generate(rows, columns, fill, 0.25);
+		if (sparse)
+			sheet = sheet.withSparseCells();
+		serialized = json.writeValueAsBytes(sheet);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		return json.writeValueAsBytes(sheet);
+	}
+
+	@Benchmark
+	public Spreadsheet deserialize() throws IOException {
+		return json.readValue(serialized, Spreadsheet.class);
+	}
+}
@@ -0,0 +1,304 @@
+package tp1.bench.load;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import tp1.api.Spreadsheet;
+import tp1.api.User;
+import tp1.bench.Sheets;
+import tp1.clients.SpreadsheetApiClient;
+import tp1.clients.SpreadsheetRestClient;
+import tp1.clients.SpreadsheetSoapClient;
+import tp1.clients.UsersApiClient;
+import tp1.clients.UsersRestClient;
+import tp1.clients.UsersSoapClient;
+import tp1.server.SpreadsheetRestServer;
+import tp1.server.SpreadsheetSoapServer;
+import tp1.server.UsersRestServer;
+import tp1.server.UsersSoapServer;
+import tp1.server.resources.SpreadsheetResource;
+import tp1.server.resources.UsersResource;
+import tp1.util.Cell;
+
+/**
+ * End-to-end load generator: starts the users and spreadsheets servers of a few domains in this process, on
+ * loopback, and drives them through the clients of the servers, reporting the throughput and latency
+ * percentiles of each operation. Configured with system properties:
+ *
+ * <ul>
+ * <li>tp1.load.transport - rest or soap (default rest).</li>
+ * <li>tp1.load.domains - number of domains, at least 2 for importrange reads (default 2).</li>
+ * <li>tp1.load.threads - number of client threads, each with a user in its domain (default 8).</li>
+ * <li>tp1.load.warmup, tp1.load.duration - seconds of warmup and of measurement (default 10 and 30).</li>
+ * <li>tp1.load.mix - weights of the operations (default create=5,update=50,values=35,import=10).</li>
+ * <li>tp1.load.rows, tp1.load.columns - size of the sheets (default 20 x 10).</li>
+ * <li>tp1.load.sheets - sheets created per thread before the run (default 4).</li>
+ * <li>tp1.load.port - port of the first server; each domain takes two (default 18080).</li>
+ * </ul>
+ *
+ * Servers are configured as usual, e.g. with -Dtp1.engine and -Dtp1.server.executor. Instead of multicast
+ * discovery, the servers find each other through a static registry.
+ */
+public class LoadGenerator {
+
+	static final String TRANSPORT = System.getProperty("tp1.load.transport", "rest");
+	static final int DOMAINS = Integer.getInteger("tp1.load.domains", 2);
+	static final int THREADS = Integer.getInteger("tp1.load.threads", 8);
+	static final int WARMUP = Integer.getInteger("tp1.load.warmup", 10);
+	static final int DURATION = Integer.getInteger("tp1.load.duration", 30);
+	static final String MIX = System.getProperty("tp1.load.mix", "create=5,update=50,values=35,import=10");
+	static final int ROWS = Integer.getInteger("tp1.load.rows", 20);
+	static final int COLUMNS = Integer.getInteger("tp1.load.columns", 10);
+	static final int SHEETS = Integer.getInteger("tp1.load.sheets", 4);
+	static final int PORT = Integer.getInteger("tp1.load.port", 18080);
+
+	static final String PASSWORD = "password";
+
+	// range of the referenced sheet imported by the importing sheets
+	static final String IMPORTED_RANGE = "A1:C3";
+
+	// latencies are recorded in microseconds, up to a minute
+	static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+	enum Op {
+		CREATE, UPDATE, VALUES, IMPORT
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean rest = TRANSPORT.equals("rest");
+		if (!rest && !TRANSPORT.equals("soap"))
+			throw new IllegalArgumentException("Unknown transport: " + TRANSPORT);
+
+		Map<Op, Integer> mix = parseMix(MIX);
+		if (DOMAINS < 2)
+			mix.remove(Op.IMPORT);
+
+		StaticDiscovery discovery = new StaticDiscovery();
+		UsersResource.setDiscovery(discovery);
+		SpreadsheetResource.setDiscovery(discovery);
+
+		List<Domain> domains = new ArrayList<>();
+		for (int i = 0; i < DOMAINS; i++) {
+			Domain domain = new Domain("load" + i, PORT + 2 * i, rest);
+			discovery.register(domain.name, UsersApiClient.SERVICE, domain.usersUri);
+			discovery.register(domain.name, SpreadsheetApiClient.SERVICE, domain.sheetsUri);
+			domains.add(domain);
+		}
+		for (Domain domain : domains)
+			domain.start(rest);
+
+		List<Worker> workers = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++)
+			workers.add(new Worker(i, domains.get(i % DOMAINS), domains.get((i + 1) % DOMAINS), mix, rest));
+
+		System.out.printf("Load: %s, %d domains, %d threads, mix %s, %dx%d sheets, %ds warmup, %ds measured\n",
+				TRANSPORT, DOMAINS, THREADS, mix, ROWS, COLUMNS, WARMUP, DURATION);
+
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(DURATION);
+
+		List<Thread> threads = new ArrayList<>();
+		for (Worker worker : workers) {
+			Thread t = new Thread(() -> worker.run(measureFrom, end), "load-" + worker.id);
+			t.start();
+			threads.add(t);
+		}
+		for (Thread t : threads)
+			t.join();
+
+		report(workers);
+		System.exit(0);
+	}
+
+	static Map<Op, Integer> parseMix(String mix) {
+		Map<Op, Integer> weights = new EnumMap<>(Op.class);
+		for (String entry : mix.split(",")) {
+			String[] kv = entry.trim().split("=");
+			int weight = Integer.parseInt(kv[1].trim());
+			if (weight > 0)
+				weights.put(Op.valueOf(kv[0].trim().toUpperCase()), weight);
+		}
+		if (weights.isEmpty())
+			throw new IllegalArgumentException("Empty operation mix: " + mix);
+		return weights;
+	}
+
+	static void report(List<Worker> workers) {
+		Map<Op, Histogram> merged = new LinkedHashMap<>();
+		Map<Op, Long> errors = new EnumMap<>(Op.class);
+		for (Op op : Op.values()) {
+			Histogram histogram = new Histogram(MAX_LATENCY, 3);
+			long failed = 0;
+			for (Worker worker : workers) {
+				histogram.add(worker.latencies.get(op));
+				failed += worker.errors.get(op);
+			}
+			if (histogram.getTotalCount() > 0 || failed > 0) {
+				merged.put(op, histogram);
+				errors.put(op, failed);
+			}
+		}
+
+		long total = 0;
+		System.out.println();
+		System.out.printf("%-8s %10s %10s %10s %10s %10s %8s\n", "op", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "errors");
+		for (Map.Entry<Op, Histogram> e : merged.entrySet()) {
+			Histogram h = e.getValue();
+			total += h.getTotalCount();
+			System.out.printf("%-8s %10d %10.1f %10.3f %10.3f %10.3f %8d\n", e.getKey().name().toLowerCase(),
+					h.getTotalCount(), (double) h.getTotalCount() / DURATION,
+					h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+					h.getValueAtPercentile(99.9) / 1000.0, errors.get(e.getKey()));
+		}
+		System.out.printf("%-8s %10d %10.1f\n", "total", total, (double) total / DURATION);
+
+		for (Map.Entry<Op, Histogram> e : merged.entrySet()) {
+			System.out.printf("\n%s latency distribution (ms):\n", e.getKey().name().toLowerCase());
+			e.getValue().outputPercentileDistribution(System.out, 1000.0);
+		}
+	}
+
+	/**
+	 * The servers of a domain.
+	 */
+	static class Domain {
+		final String name;
+		final URI usersUri;
+		final URI sheetsUri;
+		final int usersPort;
+		final int sheetsPort;
+
+		Domain(String name, int port, boolean rest) {
+			this.name = name;
+			this.usersPort = port;
+			this.sheetsPort = port + 1;
+			String path = rest ? "/rest" : "/soap";
+			this.usersUri = URI.create("http://127.0.0.1:" + usersPort + path);
+			this.sheetsUri = URI.create("http://127.0.0.1:" + sheetsPort + path);
+		}
+
+		void start(boolean rest) throws Exception {
+			if (rest) {
+				UsersRestServer.start(name, usersUri.toString());
+				SpreadsheetRestServer.start(name, sheetsUri.toString());
+			} else {
+				UsersSoapServer.start(name, new InetSocketAddress("127.0.0.1", usersPort));
+				SpreadsheetSoapServer.start(name, new InetSocketAddress("127.0.0.1", sheetsPort));
+			}
+		}
+
+		UsersApiClient usersClient(boolean rest) throws Exception {
+			return rest ? new UsersRestClient(usersUri.toString()) : new UsersSoapClient(usersUri.toString());
+		}
+
+		SpreadsheetApiClient sheetsClient(boolean rest) throws Exception {
+			return rest ? new SpreadsheetRestClient(sheetsUri.toString()) : new SpreadsheetSoapClient(sheetsUri.toString());
+		}
+	}
+
+	/**
+	 * A client thread, with a user in its domain and another in the next domain, which shares with it a sheet
+	 * imported by a sheet of its domain. Has clients of its own, as the SOAP clients are not thread-safe.
+	 */
+	static class Worker {
+		final int id;
+		final Random random;
+		final Op[] ops;
+		final SpreadsheetApiClient sheets;
+		final String userId;
+		final List<String> sheetIds = new ArrayList<>();
+		String importingSheetId;
+
+		final Map<Op, Histogram> latencies = new EnumMap<>(Op.class);
+		final Map<Op, Long> errors = new EnumMap<>(Op.class);
+
+		Worker(int id, Domain home, Domain next, Map<Op, Integer> mix, boolean rest) throws Exception {
+			this.id = id;
+			this.random = new Random(id);
+			this.ops = weighted(mix);
+			for (Op op : Op.values()) {
+				latencies.put(op, new Histogram(MAX_LATENCY, 3));
+				errors.put(op, 0L);
+			}
+
+			this.sheets = home.sheetsClient(rest);
+			this.userId = home.usersClient(rest).createUser(new User("user" + id, "User " + id, "user" + id + "@load", PASSWORD));
+			for (int i = 0; i < SHEETS; i++)
+				sheetIds.add(sheets.createSpreadsheet(newSheet(userId), PASSWORD));
+
+			if (mix.containsKey(Op.IMPORT)) {
+				String remoteUserId = next.usersClient(rest).createUser(new User("remote" + id, "Remote " + id, "remote" + id + "@load", PASSWORD));
+				Spreadsheet referenced = newSheet(remoteUserId);
+				referenced.getSharedWith().add(userId);
+				String referencedId = next.sheetsClient(rest).createSpreadsheet(referenced, PASSWORD);
+
+				Spreadsheet importing = newSheet(userId);
+				importing.setCellRawValue(0, 0, String.format("=importrange(\"%s#id#%s\",\"%s\")", next.name, referencedId, IMPORTED_RANGE));
+				this.importingSheetId = sheets.createSpreadsheet(importing, PASSWORD);
+			}
+		}
+
+		void run(long measureFrom, long end) {
+			long now;
+			while ((now = System.nanoTime()) < end) {
+				Op op = ops[random.nextInt(ops.length)];
+				try {
+					execute(op);
+					if (now >= measureFrom)
+						latencies.get(op).recordValue(Math.min(MAX_LATENCY, (System.nanoTime() - now) / 1000));
+				} catch (RuntimeException e) {
+					if (now >= measureFrom)
+						errors.merge(op, 1L, Long::sum);
+				}
+			}
+		}
+
+		void execute(Op op) {
+			switch (op) {
+				case CREATE:
+					sheetIds.add(sheets.createSpreadsheet(newSheet(userId), PASSWORD));
+					break;
+				case UPDATE:
+					String cell = Cell.Indices2CellId(random.nextInt(ROWS), random.nextInt(COLUMNS));
+					sheets.updateCell(randomSheet(), cell, Integer.toString(random.nextInt(1000)), userId, PASSWORD);
+					break;
+				case VALUES:
+					sheets.getSpreadsheetValues(randomSheet(), userId, PASSWORD);
+					break;
+				case IMPORT:
+					sheets.getSpreadsheetValues(importingSheetId, userId, PASSWORD);
+					break;
+			}
+		}
+
+		String randomSheet() {
+			return sheetIds.get(random.nextInt(sheetIds.size()));
+		}
+
+		static Spreadsheet newSheet(String owner) {
+			Spreadsheet sheet = Sheets.generate(ROWS, COLUMNS, 0.5, 0.3);
+			sheet.setOwner(owner);
+			// reads require the reader to be shared with, even the owner
+			sheet.getSharedWith().add(owner);
+			return sheet;
+		}
+
+		static Op[] weighted(Map<Op, Integer> mix) {
+			List<Op> ops = new ArrayList<>();
+			for (Map.Entry<Op, Integer> e : mix.entrySet())
+				for (int i = 0; i < e.getValue(); i++)
+					ops.add(e.getKey());
+			return ops.toArray(new Op[0]);
+		}
+	}
+}
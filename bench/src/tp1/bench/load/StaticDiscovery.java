@@ -0,0 +1,63 @@
+package tp1.bench.load;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import tp1.discovery.Discovery;
+
+/**
+ * Stand-in for discovery, for servers started in-process: servers are registered, instead of announced over
+ * multicast, and never expire.
+ */
+class StaticDiscovery extends Discovery {
+
+	private final Map<String, URI> servers = new ConcurrentHashMap<>();
+
+	StaticDiscovery() {
+		super("load", "load", "load");
+	}
+
+	void register(String domain, String service, URI uri) {
+		servers.put(key(domain, service), uri);
+	}
+
+	@Override
+	public Set<URI> knownUrisOf(String domain, String service) {
+		URI uri = servers.get(key(domain, service));
+		return uri == null ? null : Set.of(uri);
+	}
+
+	@Override
+	public URI selectUriOf(String domain, String service) {
+		return servers.get(key(domain, service));
+	}
+
+	@Override
+	public CompletableFuture<URI> firstUriOf(String domain, String service) {
+		URI uri = servers.get(key(domain, service));
+		return uri == null ? CompletableFuture.failedFuture(new IllegalStateException("Unknown service")) :
+				CompletableFuture.completedFuture(uri);
+	}
+
+	@Override
+	public URI awaitUriOf(String domain, String service, long timeout) {
+		return servers.get(key(domain, service));
+	}
+
+	@Override
+	public void subscribe(String domain, String service, Consumer<URI> callback) {
+	}
+
+	@Override
+	public boolean isAlive(URI uri) {
+		return servers.containsValue(uri);
+	}
+
+	private static String key(String domain, String service) {
+		return domain + ":" + service;
+	}
+}
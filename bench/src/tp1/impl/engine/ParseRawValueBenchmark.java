@@ -0,0 +1,27 @@
+package tp1.impl.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Classification of raw values, done for every cell of every computed sheet. In the package of the engine,
+ * as parseRawValue() is internal to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseRawValueBenchmark {
+
+	@Param({ "", "true", "12345.67", "some text", "=A1+B2*3", "=importrange(\"domain#id#sheet\",\"A1:C10\")" })
+	public String rawValue;
+
+	@Benchmark
+	public void parseRawValue(Blackhole bh) {
+		bh.consume(SpreadsheetEngineImpl.parseRawValue(rawValue));
+	}
+}
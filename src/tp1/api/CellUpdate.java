@@ -0,0 +1,40 @@
+package tp1.api;
+
+/**
+ * Represents the update of the raw value of a cell, within a batch of updates
+ */
+public class CellUpdate {
+	// name of the cell, e.g. A1
+	private String cell;
+	// new raw value of the cell
+	private String rawValue;
+
+	public CellUpdate() {
+	}
+
+	public CellUpdate(String cell, String rawValue) {
+		this.cell = cell;
+		this.rawValue = rawValue;
+	}
+
+	public String getCell() {
+		return cell;
+	}
+
+	public void setCell(String cell) {
+		this.cell = cell;
+	}
+
+	public String getRawValue() {
+		return rawValue;
+	}
+
+	public void setRawValue(String rawValue) {
+		this.rawValue = rawValue;
+	}
+
+	@Override
+	public String toString() {
+		return "CellUpdate [cell=" + cell + ", rawValue=" + rawValue + "]";
+	}
+}
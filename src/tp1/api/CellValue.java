@@ -0,0 +1,40 @@
+package tp1.api;
+
+/**
+ * Represents the computed value of a cell, within a batch of changed values
+ */
+public class CellValue {
+	// name of the cell, e.g. A1
+	private String cell;
+	// computed value of the cell
+	private String value;
+
+	public CellValue() {
+	}
+
+	public CellValue(String cell, String value) {
+		this.cell = cell;
+		this.value = value;
+	}
+
+	public String getCell() {
+		return cell;
+	}
+
+	public void setCell(String cell) {
+		this.cell = cell;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public void setValue(String value) {
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return "CellValue [cell=" + cell + ", value=" + value + "]";
+	}
+}
@@ -1,16 +1,32 @@
 package tp1.api;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import tp1.api.engine.AbstractSpreadsheet;
 import tp1.server.resources.SpreadsheetResource;
+import tp1.util.Cell;
 import tp1.util.CellRange;
+import tp1.util.InvalidCellIdException;
+import tp1.util.SparseCells;
 
 
 /**
  * Represents a spreadsheet.
+ * 
+ * Only the non-empty cells are stored. Sheets are serialized as the dense rawValues matrix, as expected by
+ * older clients, unless the client asks for only the non-empty cells, which are then serialized as a map
+ * from cell name (e.g. A1) to raw value (see withSparseCells). Both forms are accepted on input.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Spreadsheet implements AbstractSpreadsheet {
+
 	// id of the sheet - generated by the system
 	private String sheetId;
 	// id of the owner
@@ -23,8 +39,11 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	
 	private Set<String> sharedWith;
 	
-	// raw contents of the sheet
-	private String[][] rawValues;
+	// raw contents of the non-empty cells of the sheet
+	private SparseCells rawCells = new SparseCells();
+
+	// whether only the non-empty cells are serialized - not serialized itself
+	private boolean sparse;
 	
 	public Spreadsheet() {	
 	}
@@ -37,7 +56,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 		this.rows = rows;
 		this.columns = columns;
 		this.sharedWith = sharedWith;
-		this.rawValues = rawValues;
+		setRawValues(rawValues);
 	}
 
 	public Spreadsheet(Spreadsheet s, String sheetId, String domainId) {
@@ -48,7 +67,16 @@ public class Spreadsheet implements AbstractSpreadsheet {
 		this.rows = s.rows;
 		this.columns = s.columns;
 		this.sharedWith = s.sharedWith;
-		this.rawValues = s.rawValues;
+		this.rawCells = s.rawCells;
+	}
+
+	/**
+	 * Copies a spreadsheet, so that the copy is not affected by later updates of its cells.
+	 */
+	public Spreadsheet(Spreadsheet s) {
+		this(s, s.sheetId, null);
+		this.sheetURL = s.sheetURL;
+		this.rawCells = new SparseCells(s.rawCells);
 	}
 
 	public String getSheetId() {
@@ -110,12 +138,66 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	}
 
 
+	/**
+	 * A view of this sheet, sharing its cells, that serializes only the non-empty cells, for the clients
+	 * that ask for them.
+	 */
+	public Spreadsheet withSparseCells() {
+		Spreadsheet view = new Spreadsheet(this, sheetId, null);
+		view.sheetURL = sheetURL;
+		view.sparse = true;
+		return view;
+	}
+
+	/**
+	 * The dense matrix of raw values, serialized unless only the non-empty cells are asked for.
+	 */
 	public String[][] getRawValues() {
+		if (sparse)
+			return null;
+
+		var rawValues = new String[rows][columns];
+		for (String[] row : rawValues)
+			Arrays.fill(row, "");
+		rawCells.forEach((row, col, value) -> rawValues[row][col] = value);
 		return rawValues;
 	}
 
 	public void setRawValues(String[][] rawValues) {
-		this.rawValues = rawValues;
+		if (rawValues == null)
+			return;
+
+		rawCells = new SparseCells();
+		for (int row = 0; row < rawValues.length; row++)
+			for (int col = 0; col < rawValues[row].length; col++)
+				rawCells.put(row, col, rawValues[row][col]);
+	}
+
+	/**
+	 * The raw values of the non-empty cells, by cell name, only serialized when asked for.
+	 */
+	public Map<String, String> getCells() {
+		if (!sparse)
+			return null;
+
+		Map<String, String> cells = new HashMap<>();
+		rawCells.forEach((row, col, value) -> cells.put(Cell.Indices2CellId(row, col), value));
+		return cells;
+	}
+
+	public void setCells(Map<String, String> cells) {
+		if (cells == null)
+			return;
+
+		rawCells = new SparseCells();
+		try {
+			for (var e : cells.entrySet()) {
+				var coordinates = Cell.CellId2Indexes(e.getKey());
+				rawCells.put(coordinates.getLeft(), coordinates.getRight(), e.getValue());
+			}
+		} catch (InvalidCellIdException x) {
+			throw new IllegalArgumentException(x.getMessage());
+		}
 	}
 
 	/**
@@ -125,7 +207,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	 */
 	public void placeCellRawValue(String cell, String value) {
 		var r = new CellRange( cell + ":A1");
-		rawValues[r.topRow][ r.topCol] = value;
+		setCellRawValue(r.topRow, r.topCol, value);
 	}
 	
 	/**
@@ -136,7 +218,18 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	 */
 	@Deprecated
 	public void placeCellRawValue(int row, int col, String value) {
-		rawValues[row][ col] = value;
+		setCellRawValue(row, col, value);
+	}
+
+	/**
+	 * Updates the raw value of a cell, given its index coordinates, which must be within the sheet.
+	 * @param row  - the row index of the cell being updated.
+	 * @param col  - the column index of the cell being updated.
+	 * @param value the new raw value.
+	 */
+	public void setCellRawValue(int row, int col, String value) {
+		checkBounds(row, col);
+		rawCells.put(row, col, value);
 	}
 	
 	/**
@@ -146,7 +239,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	 * @return the raw value of the cell.
 	 */
 	public String extractCellRawValue(int row, int col) {
-		return rawValues[row][col];
+		return cellRawValue(row, col);
 	}
 
 	public String extractOwnerDomain() {
@@ -170,7 +263,18 @@ public class Spreadsheet implements AbstractSpreadsheet {
 
 	@Override
 	public String cellRawValue(int row, int col) {
-		return rawValues[row][col];
+		checkBounds(row, col);
+		return rawCells.get(row, col);
+	}
+
+	@Override
+	public void forEachCell(CellVisitor visitor) {
+		rawCells.forEach(visitor::visit);
+	}
+
+	private void checkBounds(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= columns)
+			throw new IndexOutOfBoundsException(String.format("(%d, %d) is outside the sheet", row, col));
 	}
 
 	@Override
@@ -179,10 +283,38 @@ public class Spreadsheet implements AbstractSpreadsheet {
 			String[] parts = sheetURL.split("#id#");
 			String domainId = parts[0];
 			String otherSheetId = parts[1];
-			return SpreadsheetResource.getRemoteSpreadsheetClient(domainId).getReferencedSpreadsheetValues(otherSheetId, owner, range);
+			long start = System.nanoTime();
+			try {
+				String[][] values = SpreadsheetResource.getRemoteSpreadsheetClient(domainId).getReferencedSpreadsheetValues(otherSheetId, owner, range);
+				SpreadsheetResource.remoteCallCompleted(domainId, start, null);
+				return values;
+			} catch (RuntimeException e) {
+				SpreadsheetResource.remoteCallCompleted(domainId, start, e);
+				throw e;
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			return null;
 		}
 	}
+
+	@Override
+	public CompletableFuture<String[][]> rangeValuesAsync(String sheetURL, String range, Executor executor) {
+		try {
+			String[] parts = sheetURL.split("#id#");
+			String domainId = parts[0];
+			String otherSheetId = parts[1];
+			return SpreadsheetResource.getRemoteSpreadsheetClientAsync(domainId, executor).thenCompose(client -> {
+				if (client == null)
+					return CompletableFuture.completedFuture(null);
+
+				long start = System.nanoTime();
+				return client.getReferencedSpreadsheetValuesAsync(otherSheetId, owner, range)
+						.whenComplete((values, error) -> SpreadsheetResource.remoteCallCompleted(domainId, start, error));
+			}).exceptionally(e -> null);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+	}
 }
@@ -0,0 +1,57 @@
+package tp1.api;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents the changes of the cells of a spreadsheet since a version of it held by a client: either
+ * the cells updated since, or the whole sheet, when the updates since that version are no longer known.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SpreadsheetChanges {
+	// current version of the sheet, to pass when asking for the next changes
+	private String version;
+	// last update of each cell updated since the version of the client, in the order they were updated
+	private List<CellUpdate> updates;
+	// the whole sheet, instead of the updates
+	private Spreadsheet sheet;
+
+	public SpreadsheetChanges() {
+	}
+
+	public SpreadsheetChanges(String version, List<CellUpdate> updates, Spreadsheet sheet) {
+		this.version = version;
+		this.updates = updates;
+		this.sheet = sheet;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	public List<CellUpdate> getUpdates() {
+		return updates;
+	}
+
+	public void setUpdates(List<CellUpdate> updates) {
+		this.updates = updates;
+	}
+
+	public Spreadsheet getSheet() {
+		return sheet;
+	}
+
+	public void setSheet(Spreadsheet sheet) {
+		this.sheet = sheet;
+	}
+
+	@Override
+	public String toString() {
+		return "SpreadsheetChanges [version=" + version + ", updates=" + updates + ", sheet=" + sheet + "]";
+	}
+}
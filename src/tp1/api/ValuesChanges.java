@@ -0,0 +1,59 @@
+package tp1.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents the changes of the computed values of a spreadsheet, or of a range of it, since a version of
+ * them held by a client: either the cells whose values changed since, or all the values, when the changes
+ * since that version are no longer known.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ValuesChanges {
+	// version of the values, to pass when waiting for the next changes
+	private String version;
+	// last value of each cell whose value changed since the version of the client, in the order they changed
+	private List<CellValue> changes;
+	// all the values of the sheet or range, instead of the changes
+	private String[][] values;
+
+	public ValuesChanges() {
+	}
+
+	public ValuesChanges(String version, List<CellValue> changes, String[][] values) {
+		this.version = version;
+		this.changes = changes;
+		this.values = values;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	public List<CellValue> getChanges() {
+		return changes;
+	}
+
+	public void setChanges(List<CellValue> changes) {
+		this.changes = changes;
+	}
+
+	public String[][] getValues() {
+		return values;
+	}
+
+	public void setValues(String[][] values) {
+		this.values = values;
+	}
+
+	@Override
+	public String toString() {
+		return "ValuesChanges [version=" + version + ", changes=" + changes + ", values=" + Arrays.deepToString(values) + "]";
+	}
+}
@@ -1,5 +1,8 @@
 package tp1.api.engine;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * 
  * Interface used to feed a spreadsheet to the SpreadsheetEngine and compute its values.
@@ -38,4 +41,33 @@ public interface AbstractSpreadsheet {
 	 * @return the computed values.
 	 */
 	String[][] rangeValues(String sheetURL, String range);
+	
+	/**
+	 * Called by the engine to resolve importrange formulas without blocking
+	 * By default, calls rangeValues() on the given executor
+	 * @param sheetURL - the url of the sheet referenced by the importrange formula
+	 * @param range - the range of cells covered by the formula
+	 * @param executor - runs blocking calls
+	 * @return the computed values, or null if they could not be obtained.
+	 */
+	default CompletableFuture<String[][]> rangeValuesAsync(String sheetURL, String range, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> rangeValues(sheetURL, range), executor);
+	}
+	
+	/**
+	 * Called by the engine to visit the non-empty cells of the spreadsheet, in no particular order
+	 * @param visitor - called with the row, col coordinates and the raw value of each cell
+	 */
+	default void forEachCell(CellVisitor visitor) {
+		for (int row = 0; row < rows(); row++)
+			for (int col = 0; col < columns(); col++) {
+				String rawValue = cellRawValue(row, col);
+				if (!rawValue.isEmpty())
+					visitor.visit(row, col, rawValue);
+			}
+	}
+	
+	interface CellVisitor {
+		void visit(int row, int col, String rawValue);
+	}
 }
\ No newline at end of file
@@ -1,5 +1,10 @@
 package tp1.api.engine;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
+import tp1.util.CellRange;
+
 /**
  * 
  * The SpreadsheeEngine class is used to compute the values of a spreadsheet from its raw values.
@@ -17,4 +22,55 @@ public interface SpreadsheetEngine {
 	 */
 	public String[][] computeSpreadsheetValues( AbstractSpreadsheet sheet );
 
+	/**
+	 * Computes the values of a range of cells. Engines may compute only the range and the cells it depends on.
+	 * @param sheet - The spreadsheet whose cells will be used to compute the values
+	 * @param range - the range of cells whose values are returned
+	 * @return the "matrix" of the values of the range.
+	 */
+	default String[][] computeRangeValues( AbstractSpreadsheet sheet, CellRange range ) {
+		return range.extractRangeValuesFrom(computeSpreadsheetValues(sheet));
+	}
+
+	/**
+	 * Fetches, without blocking, the remote values a spreadsheet imports, ahead of computing its values.
+	 * @param sheet - The spreadsheet whose importrange cells are resolved
+	 * @return the spreadsheet to pass to computeSpreadsheetValues() or computeRangeValues(), 
+	 * which will not fetch the imported values again.
+	 */
+	default CompletableFuture<AbstractSpreadsheet> prefetch( AbstractSpreadsheet sheet ) {
+		return CompletableFuture.completedFuture(sheet);
+	}
+
+	/**
+	 * Variant of prefetch for sheets that may be updated concurrently: the cells are only read while
+	 * holding the lock of the sheet, which is released before the remote values are fetched.
+	 * @param lock - the lock that guards the cells of the sheet, not held by the caller
+	 */
+	default CompletableFuture<AbstractSpreadsheet> prefetch( AbstractSpreadsheet sheet, Lock lock ) {
+		lock.lock();
+		try {
+			return prefetch(sheet);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Notifies the engine that the raw value of a cell has changed, so that engines that keep
+	 * state between computations can invalidate it.
+	 * @param sheet - The spreadsheet that was updated
+	 * @param row - the row index of the updated cell
+	 * @param col - the column index of the updated cell
+	 */
+	default void cellUpdated( AbstractSpreadsheet sheet, int row, int col ) {
+	}
+
+	/**
+	 * Notifies the engine that a spreadsheet no longer exists.
+	 * @param sheetId - the id of the removed spreadsheet
+	 */
+	default void discard( String sheetId ) {
+	}
+
 }
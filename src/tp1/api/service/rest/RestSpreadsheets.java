@@ -1,16 +1,27 @@
 package tp1.api.service.rest;
 
+import java.util.List;
+
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import tp1.api.CellUpdate;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
+import tp1.api.ValuesChanges;
+import tp1.util.SmileProvider;
 
 
 @Path(RestSpreadsheets.PATH)
@@ -28,8 +39,8 @@ public interface RestSpreadsheets {
 	 * 		   400 otherwise.
 	 */
 	@POST
-	@Consumes(MediaType.APPLICATION_JSON)
-	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	String createSpreadsheet(Spreadsheet sheet, @QueryParam("password") String password );
 
 	
@@ -55,6 +66,7 @@ public interface RestSpreadsheets {
 	 * @param sheetId - The  spreadsheet being retrieved.
 	 * @param userId - The user performing the operation.
 	 * @param password - The password of the user performing the operation.
+	 * @param sparse - true to get only the non-empty cells, by cell name, instead of the dense rawValues.
 	 *
 	 * @return 200 and the spreadsheet
 	 *		   404 if no sheet exists with the given sheetId, or the userId does not exist.
@@ -63,16 +75,39 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/{sheetId}")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	Spreadsheet getSpreadsheet(@PathParam("sheetId") String sheetId , @QueryParam("userId") String userId,
-							   @QueryParam("password") String password);
+							   @QueryParam("password") String password, @QueryParam("sparse") boolean sparse);
 		
 	
 	/**
-	 * Retrieves the calculated values of a spreadsheet.
+	 * Retrieves the cells of a spreadsheet updated since a version of it held by the caller.
+	 *
+	 * @param sheetId - The  spreadsheet being retrieved.
+	 * @param userId - The user performing the operation.
+	 * @param password - The password of the user performing the operation.
+	 * @param version - The version held by the caller, as returned by a previous call, or null if none.
+	 *
+	 * @return 200 and the current version, along with the last update of each cell updated since the version
+	 *             held by the caller, or the whole spreadsheet if those updates are no longer known
+	 *		   404 if no sheet exists with the given sheetId, or the userId does not exist.
+	 *         403 if the password is incorrect.
+	 * 		   400 otherwise
+	 */
+	@GET
+	@Path("/{sheetId}/changes")
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	SpreadsheetChanges getSpreadsheetChanges(@PathParam("sheetId") String sheetId, @QueryParam("userId") String userId,
+			@QueryParam("password") String password, @QueryParam("version") String version);
+
+
+	/**
+	 * Retrieves the calculated values of a spreadsheet, as a JSON array of rows, written a row at a time,
+	 * in the encoding negotiated with the Accept header.
 	 * @param userId - The user requesting the values
 	 * @param sheetId - the spreadsheet whose values are being retrieved.
 	 * @param password - the password of the user performing  of the operation
+	 * @param request - the request, to negotiate the encoding of the values
 	 * 
 	 * @return 200, if the operation is successful
 	 * 		   403, if the spreadsheet is not shared with user, or the user is not the owner, or the password is incorrect.
@@ -81,26 +116,58 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/{sheetId}/values")
-	@Produces(MediaType.APPLICATION_JSON)
-	String[][] getSpreadsheetValues(@PathParam("sheetId") String sheetId, 
-			@QueryParam("userId") String userId, @QueryParam("password") String password);
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	Response streamSpreadsheetValues(@PathParam("sheetId") String sheetId, 
+			@QueryParam("userId") String userId, @QueryParam("password") String password, @Context Request request);
 
 
 	/**
-	 * Retrieve a spreadsheet.
+	 * Waits for the calculated values of a spreadsheet, or of a range of it, to change from a version of them
+	 * held by the caller (long polling). Changes made while the caller is not waiting are coalesced, and
+	 * only the last value of each changed cell is returned.
+	 * @param sheetId - the spreadsheet whose values are being watched.
+	 * @param userId - The user watching the values
+	 * @param password - the password of the user performing  of the operation
+	 * @param range - the range of values being watched, or null for the whole spreadsheet.
+	 * @param version - the version of the values held by the caller, as returned by a previous call, or null if none.
+	 * @param timeout - the maximum time to wait for a change, in milliseconds, bounded by the server.
+	 *
+	 * @return 200 and the current version, along with the last value of each cell whose value changed since
+	 *             the version held by the caller, or with all the values if those changes are no longer known;
+	 *             no changes if none happened before the timeout.
+	 * 		   403, if the password is incorrect.
+	 * 		   404, if the spreadsheet or the user do not exist, or the spreadsheet is deleted while waiting
+	 * 		   503, if too many clients are waiting, or the executor of the server cannot leave requests waiting
+	 *		   400, otherwise
+	 */
+	@GET
+	@Path("/{sheetId}/values/changes")
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	ValuesChanges watchSpreadsheetValues(@PathParam("sheetId") String sheetId, @QueryParam("userId") String userId,
+			@QueryParam("password") String password, @QueryParam("range") String range,
+			@QueryParam("version") String version, @QueryParam("timeout") Long timeout);
+
+
+	/**
+	 * Retrieves a range of the calculated values of a spreadsheet, on behalf of a sheet importing them.
+	 * The values are tagged with an ETag, when they only depend on the local state of the sheet.
 	 *
 	 * @param sheetId - The  spreadsheet being retrieved.
 	 * @param userId - The user performing the operation.
+	 * @param range - The range of requested values.
+	 * @param ifNoneMatch - The ETag of the values already held by the caller, if any.
 	 *
-	 * @return 200 and the spreadsheet
+	 * @return 200 and the values
+	 *         304 if the values held by the caller, identified by ifNoneMatch, are still current.
 	 *		   404 if no sheet exists with the given sheetId, or the userId does not exist.
 	 *         403 if the password is incorrect.
 	 * 		   400 otherwise
 	 */
 	@GET
 	@Path("/reference/{sheetId}")
-	@Produces(MediaType.APPLICATION_JSON)
-	String[][] getReferencedSpreadsheetValues(@PathParam("sheetId") String sheetId , @QueryParam("userId") String userId, @QueryParam("range") String range);
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	Response getReferencedSpreadsheetValues(@PathParam("sheetId") String sheetId , @QueryParam("userId") String userId,
+											@QueryParam("range") String range, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch);
 
 	/**
 	 * Updates the raw values of some cells of a spreadsheet. 
@@ -123,6 +190,27 @@ public interface RestSpreadsheets {
 			@QueryParam("userId") String userId, @QueryParam("password") String password);
 
 	
+	/**
+	 * Updates the raw values of a batch of cells of a spreadsheet, atomically: 
+	 * either all updates are applied, or none is.
+	 * 
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param updates - the cells being updated, and their new raw values
+	 * @param userId - The user performing the update.
+	 * @param password - the password of the user performing of the operation
+	 * 
+	 * @return 204, if the operation was successful
+	 * 		  404, if no spreadsheet exists with the given sheetid
+	 *        403, if the password is incorrect.
+	 *        400 otherwise, namely if any of the cells is invalid
+	 */
+	@POST
+	@Path("/{sheetId}/cells")
+	@Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	void updateCells( @PathParam("sheetId") String sheetId, List<CellUpdate> updates, 
+			@QueryParam("userId") String userId, @QueryParam("password") String password);
+
+	
 	/**
 	 * Adds a new user to the list of shares of a spreadsheet. Only the owner can call this method.
 	 * 
@@ -161,4 +249,19 @@ public interface RestSpreadsheets {
 	@Path("/{sheetId}/share/{userId}")
 	void unshareSpreadsheet( @PathParam("sheetId") String sheetId, @PathParam("userId") String userId, 
 			@QueryParam("password") String password);
+
+	
+	/**
+	 * Discards the credentials of a user cached by the server. 
+	 * Called by the users service when a user is updated or deleted.
+	 * 
+	 * @param userId - the user whose credentials changed.
+	 * @param secret - the secret shared by the servers of the domain.
+	 * 
+	 * @return 204, in case of success.
+	 *         403, if the secret is incorrect, or the server has none.
+	 */
+	@DELETE
+	@Path("/credentials/{userId}")
+	void invalidateCredentials( @PathParam("userId") String userId, @QueryParam("secret") String secret );
 }
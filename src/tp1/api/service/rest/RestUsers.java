@@ -13,6 +13,7 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import tp1.api.User;
+import tp1.util.SmileProvider;
 
 @Path(RestUsers.PATH)
 public interface RestUsers { //ds
@@ -28,8 +29,8 @@ public interface RestUsers { //ds
 	 *         400 otherwise.
 	 */
 	@POST
-	@Consumes(MediaType.APPLICATION_JSON)
-	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	String createUser(User user);
 	
 	/**
@@ -43,7 +44,7 @@ public interface RestUsers { //ds
 	 */
 	@GET
 	@Path("/{userId}")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	User getUser(@PathParam("userId") String userId, @QueryParam("password") String password);
 	
 	/**
@@ -60,8 +61,8 @@ public interface RestUsers { //ds
 	 */
 	@PUT
 	@Path("/{userId}")
-	@Consumes(MediaType.APPLICATION_JSON)
-	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	User updateUser(@PathParam("userId") String userId, @QueryParam("password") String password, User user);
 	
 	/**
@@ -76,7 +77,7 @@ public interface RestUsers { //ds
 	 */
 	@DELETE
 	@Path("/{userId}")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	User deleteUser(@PathParam("userId") String userId, @QueryParam("password") String password);
 	
 	/**
@@ -87,7 +88,7 @@ public interface RestUsers { //ds
 	 *         400 otherwise.
 	 */
 	@GET
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, SmileProvider.APPLICATION_SMILE})
 	List<User> searchUsers(@QueryParam("query") String pattern);
 
 }
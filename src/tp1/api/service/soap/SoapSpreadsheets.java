@@ -1,8 +1,12 @@
 package tp1.api.service.soap;
 
+import java.util.List;
+
 import jakarta.jws.WebService;
 import jakarta.ws.rs.QueryParam;
+import tp1.api.CellUpdate;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
 
 @WebService(serviceName=SoapSpreadsheets.NAME, targetNamespace=SoapSpreadsheets.NAMESPACE, endpointInterface=SoapSpreadsheets.INTERFACE)
 public interface SoapSpreadsheets {
@@ -85,6 +89,31 @@ public interface SoapSpreadsheets {
 	void updateCell( String sheetId, String cell, String rawValue, String userId, String password);
 
 	
+	/**
+	 * Updates the raw values of a batch of cells of a spreadsheet, atomically: 
+	 * either all updates are applied, or none is.
+	 * 
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param updates - the cells being updated, and their new raw values
+	 * @param userId - The user performing the update.
+	 * @param password - the password of the owner of the spreadsheet
+	 *
+	 **/
+	void updateCells( String sheetId, List<CellUpdate> updates, String userId, String password);
+
+	
+	/**
+	 * Retrieves the cells of a spreadsheet updated since a version of it held by the caller,
+	 * or the whole spreadsheet if those updates are no longer known.
+	 * @param sheetId - The  spreadsheet being retrieved.
+	 * @param userId - The user performing the operation.
+	 * @param password - The password of the user performing the operation.
+	 * @param version - The version held by the caller, as returned by a previous call, or null if none.
+	 *
+	 */
+	SpreadsheetChanges getSpreadsheetChanges(String sheetId, String userId, String password, String version);
+
+	
 	/**
 	 * Retrieves the calculated values of a spreadsheet.
 	 * @param userId - The user requesting the values
@@ -93,4 +122,14 @@ public interface SoapSpreadsheets {
 	 *
 	 */
 	String[][] getSpreadsheetValues(String sheetId, String userId, String password);
+
+	
+	/**
+	 * Discards the credentials of a user cached by the server.
+	 * Called by the users service when a user is updated or deleted.
+	 * @param userId - the user whose credentials changed.
+	 * @param secret - the secret shared by the servers of the domain.
+	 *
+	 */
+	void invalidateCredentials(String userId, String secret);
 }
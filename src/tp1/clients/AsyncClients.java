@@ -0,0 +1,69 @@
+package tp1.clients;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import tp1.util.SmileProvider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Support for the asynchronous variants of the clients.
+ *
+ * REST clients send asynchronous requests with a shared JDK HttpClient, so that in-flight requests do not
+ * hold a thread each. Clients without a non-blocking transport, such as the SOAP ones, run their blocking
+ * calls on a bounded pool of daemon threads.
+ */
+public class AsyncClients {
+
+    // number of threads running the blocking calls of clients without a non-blocking transport
+    static final int THREADS = Integer.getInteger("tp1.clients.async.threads", 32);
+
+    static final int CONNECTION_TIMEOUT = 1000;
+
+    static final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(CONNECTION_TIMEOUT))
+            .build();
+
+    static final ObjectMapper json = new ObjectMapper();
+
+    private static final ExecutorService blocking = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "async-client");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static <T> CompletableFuture<T> supplyBlocking(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, blocking);
+    }
+
+    /**
+     * The pool running the blocking calls of the clients, also to create clients asynchronously, as
+     * creating a SOAP client fetches its WSDL.
+     */
+    public static Executor blocking() {
+        return blocking;
+    }
+
+    /**
+     * Decodes the body of a response in the encoding of its content type, JSON or Smile.
+     */
+    static <T> T read(HttpResponse<byte[]> response, Class<T> type, PeerEncoding peer) {
+        MediaType contentType = response.headers().firstValue(HttpHeaders.CONTENT_TYPE).map(MediaType::valueOf).orElse(null);
+        peer.observed(contentType);
+        try {
+            return (SmileProvider.isSmile(contentType) ? SmileProvider.smile : json).readValue(response.body(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package tp1.clients;
+
+import tp1.api.CellUpdate;
+import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
+import tp1.util.LRUCache;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Spreadsheets client that caches the values imported from the sheets of a remote domain.
+ *
+ * Cached ranges are served locally for a TTL. Once it expires, tagged ranges are revalidated with the server,
+ * which answers 304 if they did not change, and untagged ones are fetched again. The cache is shared by
+ * all domains and bounded by the total number of cached cells, evicting the least recently used ranges.
+ */
+public class CachingSpreadsheetClient implements SpreadsheetApiClient {
+
+    // time during which cached ranges are used without contacting the server
+    public static final long TTL = Long.getLong("tp1.cache.importrange.ttl", 1000);
+
+    // maximum number of cached cells
+    public static final long MAX_CELLS = Long.getLong("tp1.cache.importrange.cells", 1_000_000L);
+
+    private static final LRUCache<Key, Entry> cache = new LRUCache<>(MAX_CELLS, Entry::cells);
+
+    private final String domainId;
+    private final SpreadsheetApiClient client;
+
+    public CachingSpreadsheetClient(String domainId, SpreadsheetApiClient client) {
+        this.domainId = domainId;
+        this.client = client;
+    }
+
+    @Override
+    public String[][] getReferencedSpreadsheetValues(String sheetId, String userId, String range) {
+        Key key = new Key(domainId, sheetId, range, userId);
+
+        Entry cached = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.fetched < TTL)
+            return cached.values;
+
+        TaggedValues fetched = client.getReferencedSpreadsheetValues(sheetId, userId, range, cached != null ? cached.etag : null);
+        return store(key, cached, fetched, now);
+    }
+
+    @Override
+    public CompletableFuture<String[][]> getReferencedSpreadsheetValuesAsync(String sheetId, String userId, String range) {
+        Key key = new Key(domainId, sheetId, range, userId);
+
+        Entry cached = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.fetched < TTL)
+            return CompletableFuture.completedFuture(cached.values);
+
+        return client.getReferencedSpreadsheetValuesAsync(sheetId, userId, range, cached != null ? cached.etag : null)
+                .thenApply(fetched -> store(key, cached, fetched, now));
+    }
+
+    private static String[][] store(Key key, Entry cached, TaggedValues fetched, long now) {
+        String[][] values = fetched.isNotModified() ? cached.values : fetched.getValues();
+        cache.put(key, new Entry(values, fetched.getEtag(), now));
+        return values;
+    }
+
+    @Override
+    public TaggedValues getReferencedSpreadsheetValues(String sheetId, String userId, String range, String etag) {
+        return client.getReferencedSpreadsheetValues(sheetId, userId, range, etag);
+    }
+
+    @Override
+    public CompletableFuture<TaggedValues> getReferencedSpreadsheetValuesAsync(String sheetId, String userId, String range, String etag) {
+        return client.getReferencedSpreadsheetValuesAsync(sheetId, userId, range, etag);
+    }
+
+    @Override
+    public String createSpreadsheet(Spreadsheet sheet, String password) {
+        return client.createSpreadsheet(sheet, password);
+    }
+
+    @Override
+    public void deleteSpreadsheet(String sheetId, String password) {
+        client.deleteSpreadsheet(sheetId, password);
+    }
+
+    @Override
+    public Spreadsheet getSpreadsheet(String sheetId, String userId, String password) {
+        return client.getSpreadsheet(sheetId, userId, password);
+    }
+
+    @Override
+    public SpreadsheetChanges getSpreadsheetChanges(String sheetId, String userId, String password, String version) {
+        return client.getSpreadsheetChanges(sheetId, userId, password, version);
+    }
+
+    @Override
+    public String[][] getSpreadsheetValues(String sheetId, String userId, String password) {
+        return client.getSpreadsheetValues(sheetId, userId, password);
+    }
+
+    @Override
+    public void updateCell(String sheetId, String cell, String rawValue, String userId, String password) {
+        client.updateCell(sheetId, cell, rawValue, userId, password);
+    }
+
+    @Override
+    public void invalidateCredentials(String userId, String secret) {
+        client.invalidateCredentials(userId, secret);
+    }
+
+    @Override
+    public void updateCells(String sheetId, List<CellUpdate> updates, String userId, String password) {
+        client.updateCells(sheetId, updates, userId, password);
+    }
+
+    @Override
+    public void shareSpreadsheet(String sheetId, String userId, String password) {
+        client.shareSpreadsheet(sheetId, userId, password);
+    }
+
+    @Override
+    public void unshareSpreadsheet(String sheetId, String userId, String password) {
+        client.unshareSpreadsheet(sheetId, userId, password);
+    }
+
+    static class Key {
+        final String domainId, sheetId, range, userId;
+
+        Key(String domainId, String sheetId, String range, String userId) {
+            this.domainId = domainId;
+            this.sheetId = sheetId;
+            this.range = range;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return domainId.equals(other.domainId) && sheetId.equals(other.sheetId) && range.equals(other.range)
+                    && userId.equals(other.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(domainId, sheetId, range, userId);
+        }
+    }
+
+    static class Entry {
+        final String[][] values;
+        final String etag;
+        final long fetched;
+
+        Entry(String[][] values, String etag, long fetched) {
+            this.values = values;
+            this.etag = etag;
+            this.fetched = fetched;
+        }
+
+        long cells() {
+            return values == null || values.length == 0 ? 1 : (long) values.length * values[0].length;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package tp1.clients;
+
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.client.ClientResponseFilter;
+import jakarta.ws.rs.core.MediaType;
+import tp1.util.SmileProvider;
+
+/**
+ * Learns whether the server of a REST client supports Smile, from the content type of its responses,
+ * as servers answer in Smile when the client prefers it. Until then, request bodies are sent in JSON.
+ */
+class PeerEncoding implements ClientResponseFilter {
+
+    private volatile boolean smile;
+
+    @Override
+    public void filter(ClientRequestContext request, ClientResponseContext response) {
+        observed(response.getMediaType());
+    }
+
+    void observed(MediaType type) {
+        if (!smile && SmileProvider.isSmile(type))
+            smile = true;
+    }
+
+    /**
+     * @return the media type of request bodies.
+     */
+    MediaType bodyType() {
+        return smile ? SmileProvider.APPLICATION_SMILE_TYPE : MediaType.APPLICATION_JSON_TYPE;
+    }
+}
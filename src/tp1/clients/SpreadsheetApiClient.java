@@ -1,6 +1,12 @@
 package tp1.clients;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import tp1.api.CellUpdate;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
 
 public interface SpreadsheetApiClient {
 
@@ -12,13 +18,61 @@ public interface SpreadsheetApiClient {
 
     Spreadsheet getSpreadsheet(String sheetId , String userId, String password);
 
+    /**
+     * Fetches the cells of a sheet updated since a version of it held by the caller.
+     * @param version - the version held by the caller, as returned by a previous call, or null if none
+     * @return the current version, and the last update of each cell updated since the version held by the
+     *         caller, or the whole sheet if those updates are no longer known by the server
+     */
+    SpreadsheetChanges getSpreadsheetChanges(String sheetId, String userId, String password, String version);
+
     String[][] getSpreadsheetValues(String sheetId, String userId, String password);
 
+    /**
+     * Variant of getSpreadsheetValues that hands the rows of values to a consumer, in order.
+     * Transports that support it read the rows as they arrive, without holding the whole matrix.
+     */
+    default void getSpreadsheetValues(String sheetId, String userId, String password, Consumer<String[]> rows) {
+        for (String[] row : getSpreadsheetValues(sheetId, userId, password))
+            rows.accept(row);
+    }
+
     String[][] getReferencedSpreadsheetValues(String sheetId, String userId, String range);
 
+    /**
+     * Conditional variant of getReferencedSpreadsheetValues, for transports that support revalidation.
+     * @param etag - the tag of the values already held by the caller, or null
+     * @return the values and their tag; no values if the ones held by the caller are still current
+     */
+    default TaggedValues getReferencedSpreadsheetValues(String sheetId, String userId, String range, String etag) {
+        return new TaggedValues(getReferencedSpreadsheetValues(sheetId, userId, range), null);
+    }
+
+    /**
+     * Asynchronous variant of getReferencedSpreadsheetValues.
+     */
+    default CompletableFuture<String[][]> getReferencedSpreadsheetValuesAsync(String sheetId, String userId, String range) {
+        return getReferencedSpreadsheetValuesAsync(sheetId, userId, range, null).thenApply(TaggedValues::getValues);
+    }
+
+    /**
+     * Asynchronous variant of the conditional getReferencedSpreadsheetValues.
+     * By default, runs the blocking variant on a bounded pool of threads.
+     */
+    default CompletableFuture<TaggedValues> getReferencedSpreadsheetValuesAsync(String sheetId, String userId, String range, String etag) {
+        return AsyncClients.supplyBlocking(() -> getReferencedSpreadsheetValues(sheetId, userId, range, etag));
+    }
+
     void updateCell( String sheetId, String cell, String rawValue, String userId, String password);
 
+    /**
+     * Updates a batch of cells atomically, with a single request.
+     */
+    void updateCells( String sheetId, List<CellUpdate> updates, String userId, String password);
+
     void shareSpreadsheet(String sheetId, String userId, String password);
 
     void unshareSpreadsheet( String sheetId, String userId,  String password);
+
+    void invalidateCredentials(String userId, String secret);
 }
\ No newline at end of file
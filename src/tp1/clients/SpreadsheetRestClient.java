@@ -1,5 +1,16 @@
 package tp1.clients;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.client.Client;
@@ -7,19 +18,28 @@ import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.glassfish.jersey.client.ClientConfig;
+import tp1.api.CellUpdate;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
+import tp1.api.ValuesChanges;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.clients.SpreadsheetApiClient;
+import tp1.util.SmileProvider;
+import tp1.util.ValuesStreams;
 
 public class SpreadsheetRestClient implements SpreadsheetApiClient {
 
     private final WebTarget target;
+    private final PeerEncoding peer = new PeerEncoding();
 
     public SpreadsheetRestClient(String serverUrl) {
         ClientConfig config = new ClientConfig();
+        config.register(SmileProvider.class);
+        config.register(peer);
         Client client = ClientBuilder.newClient(config);
         target = client.target(serverUrl).path( RestSpreadsheets.PATH );
     }
@@ -27,8 +47,8 @@ public class SpreadsheetRestClient implements SpreadsheetApiClient {
     @Override
     public String createSpreadsheet(Spreadsheet sheet, String password) throws WebApplicationException  {
         Response r = target.queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
-                .post(Entity.entity(sheet, MediaType.APPLICATION_JSON));
+                .accept(SmileProvider.ACCEPTED)
+                .post(Entity.entity(sheet, peer.bodyType()));
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
             return r.readEntity(String.class);
@@ -39,7 +59,7 @@ public class SpreadsheetRestClient implements SpreadsheetApiClient {
     @Override
     public void deleteSpreadsheet(String sheetId, String password) throws WebApplicationException {
         Response r = target.path(sheetId).queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .delete();
 
         if( r.getStatus() != Response.Status.OK.getStatusCode() )
@@ -49,8 +69,9 @@ public class SpreadsheetRestClient implements SpreadsheetApiClient {
     @Override
     public Spreadsheet getSpreadsheet(String sheetId, String userId, String password) throws WebApplicationException {
 
-        Response r = target.path(sheetId).queryParam("userId", userId).queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
+        Response r = target.path(sheetId).queryParam("userId", userId).queryParam("password", password)
+                .queryParam("sparse", true).request()
+                .accept(SmileProvider.ACCEPTED)
                 .get();
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
@@ -59,47 +80,144 @@ public class SpreadsheetRestClient implements SpreadsheetApiClient {
             throw new WebApplicationException(r.getStatus());
     }
 
+    @Override
+    public SpreadsheetChanges getSpreadsheetChanges(String sheetId, String userId, String password, String version) throws WebApplicationException {
+
+        Response r = target.path(sheetId).path("changes").queryParam("userId", userId).queryParam("password", password)
+                .queryParam("version", version).request()
+                .accept(SmileProvider.ACCEPTED)
+                .get();
+
+        if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
+            return r.readEntity(SpreadsheetChanges.class);
+        else
+            throw new WebApplicationException(r.getStatus());
+    }
+
     @Override
     public String[][] getSpreadsheetValues(String sheetId, String userId, String password) throws WebApplicationException {
+        List<String[]> rows = new ArrayList<>();
+        getSpreadsheetValues(sheetId, userId, password, rows::add);
+        return rows.toArray(new String[0][]);
+    }
 
-        Response r = target.path(sheetId).queryParam("userId", userId).queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
+    @Override
+    public void getSpreadsheetValues(String sheetId, String userId, String password, Consumer<String[]> rows) throws WebApplicationException {
+
+        Response r = target.path(sheetId).path("values").queryParam("userId", userId).queryParam("password", password).request()
+                .accept(SmileProvider.ACCEPTED)
+                .get();
+
+        try {
+            if( r.getStatus() != Response.Status.OK.getStatusCode() || !r.hasEntity() )
+                throw new WebApplicationException(r.getStatus());
+
+            // rows are parsed as they arrive, instead of buffering the response
+            try (InputStream in = r.readEntity(InputStream.class)) {
+                ValuesStreams.read(in, r.getMediaType(), rows);
+            } catch (IOException e) {
+                throw new ProcessingException("Could not read the values of " + sheetId, e);
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Waits for the values of a sheet, or of a range of it, to change from the version held by the caller.
+     * Only supported by REST servers.
+     * @param range - the range of values, or null for the whole sheet
+     * @param version - the version held by the caller, as returned by a previous call, or null if none
+     * @param timeout - the maximum time to wait, in milliseconds, or null for the maximum of the server
+     * @return the current version, and the values that changed since the version held by the caller, or
+     *         all the values if those changes are no longer known by the server
+     */
+    public ValuesChanges watchSpreadsheetValues(String sheetId, String userId, String password, String range,
+            String version, Long timeout) throws WebApplicationException {
+
+        Response r = target.path(sheetId).path("values").path("changes").queryParam("userId", userId)
+                .queryParam("password", password).queryParam("range", range).queryParam("version", version)
+                .queryParam("timeout", timeout).request()
+                .accept(SmileProvider.ACCEPTED)
                 .get();
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
-            return r.readEntity(new GenericType<String[][]>() {});
+            return r.readEntity(ValuesChanges.class);
         else
             throw new WebApplicationException(r.getStatus());
     }
 
     @Override
     public String[][] getReferencedSpreadsheetValues(String sheetId, String userId, String range) throws WebApplicationException  {
+        return getReferencedSpreadsheetValues(sheetId, userId, range, null).getValues();
+    }
+
+    @Override
+    public TaggedValues getReferencedSpreadsheetValues(String sheetId, String userId, String range, String etag) throws WebApplicationException  {
 
-        Response r = target.path(sheetId).queryParam("userId", userId).queryParam("range",range).request()
-                .accept(MediaType.APPLICATION_JSON)
+        Response r = target.path("reference").path(sheetId).queryParam("userId", userId).queryParam("range",range).request()
+                .accept(SmileProvider.ACCEPTED)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
                 .get();
 
-        if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
-            return r.readEntity(new GenericType<String[][]>() {});
+        String tag = r.getHeaderString(HttpHeaders.ETAG);
+
+        if( r.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode() )
+            return new TaggedValues(null, tag != null ? tag : etag);
+        else if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
+            return new TaggedValues(r.readEntity(new GenericType<String[][]>() {}), tag);
         else
             throw new WebApplicationException(r.getStatus());
     }
 
+    @Override
+    public CompletableFuture<TaggedValues> getReferencedSpreadsheetValuesAsync(String sheetId, String userId, String range, String etag) {
+
+        URI uri = target.path("reference").path(sheetId).queryParam("userId", userId).queryParam("range",range).getUri();
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .header(HttpHeaders.ACCEPT, String.join(", ", SmileProvider.ACCEPTED))
+                .GET();
+        if( etag != null )
+            request.header(HttpHeaders.IF_NONE_MATCH, etag);
+
+        return AsyncClients.http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApply( r -> {
+            String tag = r.headers().firstValue(HttpHeaders.ETAG).orElse(null);
+
+            if( r.statusCode() == Response.Status.NOT_MODIFIED.getStatusCode() )
+                return new TaggedValues(null, tag != null ? tag : etag);
+            else if( r.statusCode() == Response.Status.OK.getStatusCode() )
+                return new TaggedValues(AsyncClients.read(r, String[][].class, peer), tag);
+            else
+                throw new WebApplicationException(r.statusCode());
+        });
+    }
+
     @Override
     public void updateCell(String sheetId, String cell, String rawValue, String userId, String password) throws WebApplicationException  {
 
         Response r = target.path(sheetId).path(cell).queryParam("userId", userId).queryParam("password",  password).request()
-                .accept(MediaType.APPLICATION_JSON)
-                .put(Entity.entity(cell, MediaType.APPLICATION_JSON));
+                .accept(SmileProvider.ACCEPTED)
+                .put(Entity.entity(rawValue, MediaType.APPLICATION_JSON));
 
-        if( r.getStatus() != Response.Status.OK.getStatusCode() )
+        if( r.getStatus() != Response.Status.OK.getStatusCode() && r.getStatus() != Response.Status.NO_CONTENT.getStatusCode() )
+            throw new WebApplicationException(r.getStatus());
+    }
+
+    @Override
+    public void updateCells(String sheetId, List<CellUpdate> updates, String userId, String password) throws WebApplicationException  {
+
+        Response r = target.path(sheetId).path("cells").queryParam("userId", userId).queryParam("password",  password).request()
+                .post(Entity.entity(updates, peer.bodyType()));
+
+        if( r.getStatus() != Response.Status.OK.getStatusCode() && r.getStatus() != Response.Status.NO_CONTENT.getStatusCode() )
             throw new WebApplicationException(r.getStatus());
     }
 
     @Override
     public void shareSpreadsheet(String sheetId, String userId, String password) throws WebApplicationException  {
         Response r = target.path(sheetId).path(userId).queryParam("password",  password).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .post(Entity.entity(userId, MediaType.APPLICATION_JSON));
 
         if( r.getStatus() != Response.Status.OK.getStatusCode() && r.hasEntity() )
@@ -109,10 +227,19 @@ public class SpreadsheetRestClient implements SpreadsheetApiClient {
     @Override
     public void unshareSpreadsheet(String sheetId, String userId, String password) throws WebApplicationException  {
         Response r = target.path(sheetId).path(userId).queryParam("password",  password).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .delete();
 
         if( r.getStatus() != Response.Status.OK.getStatusCode() && r.hasEntity() )
             throw new WebApplicationException(r.getStatus());
     }
+
+    @Override
+    public void invalidateCredentials(String userId, String secret) throws WebApplicationException  {
+        Response r = target.path("credentials").path(userId).queryParam("secret", secret).request()
+                .delete();
+
+        if( r.getStatus() != Response.Status.OK.getStatusCode() && r.getStatus() != Response.Status.NO_CONTENT.getStatusCode() )
+            throw new WebApplicationException(r.getStatus());
+    }
 }
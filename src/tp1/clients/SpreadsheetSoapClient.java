@@ -3,13 +3,16 @@ package tp1.clients;
 import com.sun.xml.ws.client.BindingProviderProperties;
 import jakarta.xml.ws.BindingProvider;
 import jakarta.xml.ws.Service;
+import tp1.api.CellUpdate;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
 import tp1.api.service.soap.SoapException;
 import tp1.api.service.soap.SoapSpreadsheets;
 
 import javax.xml.namespace.QName;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.function.Supplier;
 
 public class SpreadsheetSoapClient implements SpreadsheetApiClient {
@@ -72,6 +75,11 @@ public class SpreadsheetSoapClient implements SpreadsheetApiClient {
         return retry( () -> target.getSpreadsheet(sheetId, userId, password) );
     }
 
+    @Override
+    public SpreadsheetChanges getSpreadsheetChanges(String sheetId, String userId, String password, String version)  {
+        return retry( () -> target.getSpreadsheetChanges(sheetId, userId, password, version) );
+    }
+
     @Override
     public String[][] getSpreadsheetValues(String sheetId, String userId, String password)  {
         return retry( () -> target.getSpreadsheetValues(sheetId, userId, password) );
@@ -89,6 +97,13 @@ public class SpreadsheetSoapClient implements SpreadsheetApiClient {
         } );
     }
 
+    @Override
+    public void updateCells(String sheetId, List<CellUpdate> updates, String userId, String password)  {
+        retry( () -> { target.updateCells(sheetId, updates, userId, password);
+            return null;
+        } );
+    }
+
     @Override
     public void shareSpreadsheet(String sheetId, String userId, String password)  {
         retry( () -> { target.shareSpreadsheet(sheetId, userId, password);
@@ -102,4 +117,11 @@ public class SpreadsheetSoapClient implements SpreadsheetApiClient {
             return null;
         } );
     }
+
+    @Override
+    public void invalidateCredentials(String userId, String secret)  {
+        retry( () -> { target.invalidateCredentials(userId, secret);
+            return null;
+        } );
+    }
 }
@@ -0,0 +1,28 @@
+package tp1.clients;
+
+/**
+ * Result of a conditional getReferencedSpreadsheetValues: the values, tagged with the ETag the server
+ * assigned them, if any. Null values mean the values held by the caller are still current.
+ */
+public class TaggedValues {
+
+    private final String[][] values;
+    private final String etag;
+
+    public TaggedValues(String[][] values, String etag) {
+        this.values = values;
+        this.etag = etag;
+    }
+
+    public String[][] getValues() {
+        return values;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public boolean isNotModified() {
+        return values == null;
+    }
+}
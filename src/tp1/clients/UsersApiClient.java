@@ -4,6 +4,7 @@ import tp1.api.User;
 import tp1.api.service.soap.SoapException;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface UsersApiClient {
 
@@ -13,6 +14,14 @@ public interface UsersApiClient {
 
     Boolean verifyUser (String userId, String password);
 
+    /**
+     * Asynchronous variant of verifyUser.
+     * By default, runs the blocking variant on a bounded pool of threads.
+     */
+    default CompletableFuture<Boolean> verifyUserAsync(String userId, String password) {
+        return AsyncClients.supplyBlocking(() -> verifyUser(userId, password));
+    }
+
     User getUser(String userId, String password);
 
     User updateUser(String userId, String password, User user);
@@ -6,14 +6,20 @@ import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.glassfish.jersey.client.ClientConfig;
 import tp1.api.User;
 import tp1.api.service.rest.RestUsers;
 import tp1.server.resources.UsersResource;
+import tp1.util.SmileProvider;
 
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 public class UsersRestClient implements UsersApiClient {
@@ -21,9 +27,12 @@ public class UsersRestClient implements UsersApiClient {
     private static Logger Log = Logger.getLogger(UsersResource.class.getName());
 
     private final WebTarget target;
+    private final PeerEncoding peer = new PeerEncoding();
 
     public UsersRestClient(String serverUrl) {
         ClientConfig config = new ClientConfig();
+        config.register(SmileProvider.class);
+        config.register(peer);
         Client client = ClientBuilder.newClient(config);
         target = client.target(serverUrl).path( RestUsers.PATH );
     }
@@ -31,8 +40,8 @@ public class UsersRestClient implements UsersApiClient {
     @Override
     public String createUser(User user) throws WebApplicationException {
         Response r = target.request()
-                .accept(MediaType.APPLICATION_JSON)
-                .post(Entity.entity(user, MediaType.APPLICATION_JSON));
+                .accept(SmileProvider.ACCEPTED)
+                .post(Entity.entity(user, peer.bodyType()));
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
             return r.readEntity(String.class);
@@ -44,7 +53,7 @@ public class UsersRestClient implements UsersApiClient {
     public Boolean verifyUser(String userId, String password) {
 
         Response r = target.path(userId).queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .get();
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() ) {
@@ -59,11 +68,31 @@ public class UsersRestClient implements UsersApiClient {
 
     }
 
+    @Override
+    public CompletableFuture<Boolean> verifyUserAsync(String userId, String password) {
+
+        URI uri = target.path(userId).queryParam("password", password).getUri();
+
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .GET()
+                .build();
+
+        return AsyncClients.http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply( r -> {
+            if( r.statusCode() == Response.Status.OK.getStatusCode() )
+                return true;
+            if( r.statusCode() == Response.Status.FORBIDDEN.getStatusCode() )
+                return false;
+            else
+                throw new WebApplicationException(r.statusCode());
+        });
+    }
+
     @Override
     public User getUser(String userId, String password) throws WebApplicationException {
 
         Response r = target.path(userId).queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .get();
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
@@ -76,8 +105,8 @@ public class UsersRestClient implements UsersApiClient {
     public User updateUser(String userId, String password, User user) throws WebApplicationException {
 
         Response r = target.path(userId).queryParam("password",  password).request()
-                .accept(MediaType.APPLICATION_JSON)
-                .put(Entity.entity(user, MediaType.APPLICATION_JSON));
+                .accept(SmileProvider.ACCEPTED)
+                .put(Entity.entity(user, peer.bodyType()));
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
             return r.readEntity(User.class);
@@ -88,7 +117,7 @@ public class UsersRestClient implements UsersApiClient {
     @Override
     public User deleteUser(String userId, String password) throws WebApplicationException {
         Response r = target.path( userId).queryParam("password", password).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .delete();
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() )
@@ -100,7 +129,7 @@ public class UsersRestClient implements UsersApiClient {
     @Override
     public List<User> searchUsers(String pattern) throws WebApplicationException {
         Response r = target.path("/").queryParam("query", pattern).request()
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(SmileProvider.ACCEPTED)
                 .get();
 
         if( r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity() ) {
@@ -2,10 +2,19 @@ package tp1.discovery;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -18,6 +27,15 @@ import java.util.logging.Logger;
  * <p>Service announcements have the following format:</p>
  * 
  * <p>&lt;service-name-string&gt;&lt;delimiter-char&gt;&lt;service-uri-string&gt;</p>
+ *
+ * <p>Announcements are sent and received on a single non-blocking datagram channel, and collected into
+ * a concurrent registry, so that lookups do not lock and never see a set being modified.</p>
+ *
+ * <p>Servers not heard from for DISCOVERY_TIMEOUT are forgotten. Users of the discovered servers may report
+ * the latency of their calls, so that selectUriOf() prefers the servers that answer fastest.</p>
+ *
+ * <p>Servers not heard from yet can be waited for with firstUriOf() or awaitUriOf(), and subscribers are
+ * told of each server as it is announced.</p>
  */
 public class Discovery {
 	private static Logger Log = Logger.getLogger(Discovery.class.getName());
@@ -38,13 +56,36 @@ public class Discovery {
 	private static final String URI_DELIMITER = "\t";
 	private static final String DOMAIN_DELIMITER = ":";
 
+	private static final int MAX_DATAGRAM_SIZE = 1024;
+
+	// bounds the parsed announcements kept, should unexpected ones be received
+	private static final int MAX_ANNOUNCEMENTS = 1024;
+
+	// latency assumed for servers without reports: slower than any answer, faster than a failure
+	private static final long UNREPORTED_LATENCY = DISCOVERY_TIMEOUT - 1;
+
 	private InetSocketAddress addr;
 	private String domainId;
 	private String serviceName;
 	private String serviceURI;
 	private Map<String, Set<URI>> servers;
-	private Map<String, Long> timeStamps;
-	private MulticastSocket ms;
+	// when each server was last announced
+	private Map<URI, Long> lastSeen;
+	// moving average of the latencies reported for each server, in ms
+	private Map<URI, Long> latencies;
+	// announcements already parsed, as the same ones are received every period
+	private Map<String, Announcement> announcements;
+	// completed by the collector with the first server announced for a service, while someone waits for it
+	private Map<String, CompletableFuture<URI>> firstAnnounced;
+	private Map<String, List<Consumer<URI>>> subscribers;
+	private DatagramChannel channel;
+
+	// runs the callbacks of subscribers, so that they do not delay the collector
+	private static final ExecutorService notifier = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "discovery-notifier");
+		t.setDaemon(true);
+		return t;
+	});
 
 	/**
 	 * @param  serviceName the name of the service to announce
@@ -55,9 +96,13 @@ public class Discovery {
 		this.domainId = domainId;
 		this.serviceName = serviceName;
 		this.serviceURI  = serviceURI;
-		this.servers = new HashMap<String, Set<URI>>();
-		this.timeStamps = new HashMap<String, Long>();
-		this.ms = null;
+		this.servers = new ConcurrentHashMap<>();
+		this.lastSeen = new ConcurrentHashMap<>();
+		this.latencies = new ConcurrentHashMap<>();
+		this.announcements = new ConcurrentHashMap<>();
+		this.firstAnnounced = new ConcurrentHashMap<>();
+		this.subscribers = new ConcurrentHashMap<>();
+		this.channel = null;
 	}
 
 	/**
@@ -74,27 +119,28 @@ public class Discovery {
 	public void startSendingAnnouncements() {
 		Log.info(String.format("Starting Discovery announcements on: %s for: %s -> %s\n", addr, serviceName, serviceURI));
 
-		byte[] announceBytes = (domainId+ DOMAIN_DELIMITER +serviceName+ URI_DELIMITER +serviceURI).getBytes();
-		DatagramPacket announcePkt = new DatagramPacket(announceBytes, announceBytes.length, addr);
+		byte[] announceBytes = (domainId+ DOMAIN_DELIMITER +serviceName+ URI_DELIMITER +serviceURI).getBytes(StandardCharsets.UTF_8);
+		ByteBuffer announcement = ByteBuffer.allocateDirect(announceBytes.length).put(announceBytes);
 
 		try {
-			if(ms == null) {
-				ms = new MulticastSocket(addr.getPort());
-				ms.joinGroup(addr, NetworkInterface.getByInetAddress(InetAddress.getLocalHost()));
-			}
+			DatagramChannel channel = channel();
 
 			// start thread to send periodic announcements
-			new Thread(() -> {
+			Thread sender = new Thread(() -> {
 				for (;;) {
 					try {
-						ms.send(announcePkt);
+						announcement.rewind();
+						channel.send(announcement, addr);
 						Thread.sleep(DISCOVERY_PERIOD);
+					} catch (InterruptedException e) {
+						return;
 					} catch (Exception e) {
-						e.printStackTrace();
-						// do nothing
+						Log.warning("Could not send announcement: " + e.getMessage());
 					}
 				}
-			}).start();
+			}, "discovery-announcer");
+			sender.setDaemon(true);
+			sender.start();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -105,44 +151,98 @@ public class Discovery {
 	 */
 	public void startCollectingAnnouncements() {
 		try {
-			if(ms == null) {
-				ms = new MulticastSocket(addr.getPort());
-				ms.joinGroup(addr, NetworkInterface.getByInetAddress(InetAddress.getLocalHost()));
-			}
+			DatagramChannel channel = channel();
+			Selector selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
 
 			// start thread to collect announcements
-			new Thread(() -> {
-				DatagramPacket pkt = new DatagramPacket(new byte[1024], 1024);
+			Thread collector = new Thread(() -> {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+				byte[] bytes = new byte[MAX_DATAGRAM_SIZE];
 				for (;;) {
 					try {
-						pkt.setLength(1024);
-						ms.receive(pkt);
-
-						String msg = new String( pkt.getData(), 0, pkt.getLength());
-						String[] msgElems = msg.split(URI_DELIMITER);
-
-						if( msgElems.length == 2) {	//periodic announcement
-							System.out.printf( "FROM %s (%s) : %s\n", pkt.getAddress().getCanonicalHostName(),
-									pkt.getAddress().getHostAddress(), msg);
-
-							String sn = msgElems[0], su = msgElems[1];
-
-							if (!servers.containsKey(sn))
-								servers.put(sn, new HashSet<URI>());
+						selector.select(DISCOVERY_PERIOD);
+						selector.selectedKeys().clear();
+						expire();
 
-							servers.get(sn).add(URI.create(su));
-							timeStamps.put(sn, System.currentTimeMillis());
+						// drains every datagram received since the last selection
+						while (channel.receive(buffer.clear()) != null) {
+							int length = buffer.flip().remaining();
+							buffer.get(bytes, 0, length);
+							received(new String(bytes, 0, length, StandardCharsets.UTF_8));
 						}
+					} catch (ClosedChannelException e) {
+						return;
 					} catch (IOException e) {
 						// do nothing
 					}
 				}
-			}).start();
+			}, "discovery-collector");
+			collector.setDaemon(true);
+			collector.start();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	private void received(String msg) {
+		Announcement a = announcements.get(msg);
+		if (a == null) {
+			a = Announcement.parse(msg);
+			if (a == null)
+				return;
+			if (announcements.size() < MAX_ANNOUNCEMENTS)
+				announcements.put(msg, a);
+			Log.info(String.format("Discovered %s -> %s\n", a.service, a.uri));
+		}
+
+		Set<URI> uris = servers.get(a.service);
+		if (uris == null)
+			uris = servers.computeIfAbsent(a.service, s -> new CopyOnWriteArraySet<>());
+		lastSeen.put(a.uri, System.currentTimeMillis());
+		if (uris.add(a.uri))
+			announced(a.service, a.uri);
+	}
+
+	/**
+	 * Wakes up those waiting for a service and notifies its subscribers of a newly announced server.
+	 */
+	private void announced(String service, URI uri) {
+		CompletableFuture<URI> first = firstAnnounced.get(service);
+		if (first != null)
+			first.complete(uri);
+
+		List<Consumer<URI>> callbacks = subscribers.get(service);
+		if (callbacks != null)
+			for (Consumer<URI> callback : callbacks)
+				notify(callback, uri);
+	}
+
+	private static void notify(Consumer<URI> callback, URI uri) {
+		notifier.execute(() -> {
+			try {
+				callback.accept(uri);
+			} catch (RuntimeException e) {
+				Log.warning("Discovery subscriber failed for " + uri + ": " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Forgets the servers not announced for DISCOVERY_TIMEOUT.
+	 */
+	private void expire() {
+		long now = System.currentTimeMillis();
+		for (Set<URI> uris : servers.values())
+			for (URI uri : uris)
+				if (now - lastSeen.getOrDefault(uri, 0L) > DISCOVERY_TIMEOUT) {
+					uris.remove(uri);
+					lastSeen.remove(uri);
+					latencies.remove(uri);
+					Log.info(String.format("Expired %s\n", uri));
+				}
+	}
+
 	/**
 	 * Returns the known servers for a service.
 	 * 
@@ -151,6 +251,170 @@ public class Discovery {
 	 * 
 	 */
 	public Set<URI> knownUrisOf(String domain, String service) {
-		return servers.get(domain+DOMAIN_DELIMITER+serviceName);
+		Set<URI> uris = servers.get(domain+DOMAIN_DELIMITER+service);
+		return uris == null ? null : Collections.unmodifiableSet(uris);
+	}
+
+	/**
+	 * Selects a server of a service: the one with the lowest reported latency. Servers without reports rank
+	 * after those that answered and before those that failed, and the most recently announced is preferred
+	 * among servers that rank the same.
+	 *
+	 * @return the uri of the selected server, or null if no server of the service is alive.
+	 */
+	public URI selectUriOf(String domain, String service) {
+		Set<URI> uris = servers.get(domain+DOMAIN_DELIMITER+service);
+		if (uris == null)
+			return null;
+
+		URI selected = null;
+		long selectedLatency = Long.MAX_VALUE, selectedSeen = 0;
+		for (URI uri : uris) {
+			if (!isAlive(uri))
+				continue;
+			long latency = latencies.getOrDefault(uri, UNREPORTED_LATENCY), seen = lastSeen.getOrDefault(uri, 0L);
+			if (selected == null || latency < selectedLatency || (latency == selectedLatency && seen > selectedSeen)) {
+				selected = uri;
+				selectedLatency = latency;
+				selectedSeen = seen;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Selects a server of a service, waiting for one to be announced if none is alive.
+	 *
+	 * @return a future completed with the uri of the server, or failed with a TimeoutException
+	 * if none is announced within DISCOVERY_TIMEOUT.
+	 */
+	public CompletableFuture<URI> firstUriOf(String domain, String service) {
+		URI uri = selectUriOf(domain, service);
+		if (uri != null)
+			return CompletableFuture.completedFuture(uri);
+
+		CompletableFuture<URI> first = firstAnnounced.compute(domain+DOMAIN_DELIMITER+service,
+				(key, previous) -> previous == null || previous.isDone() ? 
+						new CompletableFuture<URI>().orTimeout(DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS) : previous);
+
+		// the server may have been announced before the future was in place
+		uri = selectUriOf(domain, service);
+		if (uri != null)
+			first.complete(uri);
+
+		return first.copy();
+	}
+
+	/**
+	 * Selects a server of a service, waiting up to a timeout, at most DISCOVERY_TIMEOUT, for one to be 
+	 * announced if none is alive.
+	 *
+	 * @return the uri of the server, or null if none was announced before the timeout.
+	 */
+	public URI awaitUriOf(String domain, String service, long timeout) {
+		try {
+			return firstUriOf(domain, service).get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Subscribes to the servers of a service: the callback is given the servers alive now, and then
+	 * each server as it is announced for the first time or after having expired. Callbacks run on a
+	 * thread of discovery, one at a time, and should not block. A server may be given more than once.
+	 */
+	public void subscribe(String domain, String service, Consumer<URI> callback) {
+		String key = domain+DOMAIN_DELIMITER+service;
+		subscribers.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(callback);
+
+		Set<URI> uris = servers.get(key);
+		if (uris != null)
+			for (URI uri : uris)
+				if (isAlive(uri))
+					notify(callback, uri);
+	}
+
+	/**
+	 * Tests if a server was announced less than DISCOVERY_TIMEOUT ago.
+	 */
+	public boolean isAlive(URI uri) {
+		Long seen = lastSeen.get(uri);
+		return seen != null && System.currentTimeMillis() - seen <= DISCOVERY_TIMEOUT;
+	}
+
+	/**
+	 * Reports the latency of a call to a server.
+	 */
+	public void reportLatency(URI uri, long millis) {
+		if (lastSeen.containsKey(uri))
+			latencies.merge(uri, millis, (average, latest) -> (3 * average + latest) / 4);
+	}
+
+	/**
+	 * Reports a failed call to a server, which is then only selected if no other server answers faster
+	 * than DISCOVERY_TIMEOUT.
+	 */
+	public void reportFailure(URI uri) {
+		if (lastSeen.containsKey(uri))
+			latencies.put(uri, (long) DISCOVERY_TIMEOUT);
+	}
+
+	/**
+	 * The channel used both to send and to receive announcements, bound to the discovery port and joined
+	 * to the discovery group.
+	 */
+	private synchronized DatagramChannel channel() throws IOException {
+		if (channel == null) {
+			NetworkInterface ni = multicastInterface();
+			DatagramChannel dc = DatagramChannel.open(StandardProtocolFamily.INET)
+					.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+					.bind(new InetSocketAddress(addr.getPort()))
+					.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+			dc.configureBlocking(false);
+			dc.join(addr.getAddress(), ni);
+			channel = dc;
+		}
+		return channel;
+	}
+
+	/**
+	 * The interface of the local host address, or else the first active interface that supports multicast.
+	 */
+	private static NetworkInterface multicastInterface() throws IOException {
+		NetworkInterface ni = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+		if (ni != null)
+			return ni;
+
+		for (Enumeration<NetworkInterface> it = NetworkInterface.getNetworkInterfaces(); it.hasMoreElements();) {
+			NetworkInterface candidate = it.nextElement();
+			if (candidate.isUp() && candidate.supportsMulticast())
+				return candidate;
+		}
+		throw new SocketException("No network interface supports multicast");
+	}
+
+	static class Announcement {
+		final String service;
+		final URI uri;
+
+		Announcement(String service, URI uri) {
+			this.service = service;
+			this.uri = uri;
+		}
+
+		static Announcement parse(String msg) {
+			int delimiter = msg.indexOf(URI_DELIMITER);
+			if (delimiter < 0 || msg.indexOf(URI_DELIMITER, delimiter + 1) >= 0)
+				return null;
+			try {
+				return new Announcement(msg.substring(0, delimiter), URI.create(msg.substring(delimiter + 1)));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
 	}
 }
@@ -0,0 +1,49 @@
+package tp1.impl.engine;
+
+import java.util.Arrays;
+
+/**
+ * Map from cell keys to non-negative ints, of a size known in advance, in an open addressing table with
+ * linear probing. Cell keys are not boxed as Longs, whose hash codes, row ^ col, collide for nearby cells.
+ */
+class CellIndex {
+
+	private final long[] keys;
+	// -1 marks a free slot
+	private final int[] values;
+	private final int mask;
+
+	/**
+	 * @param size - the number of keys to be put
+	 */
+	CellIndex(int size) {
+		int capacity = Integer.highestOneBit(Math.max(2, 2 * size - 1)) << 1;
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		this.mask = capacity - 1;
+		Arrays.fill(values, -1);
+	}
+
+	void put(long key, int value) {
+		int i = slot(key);
+		while (values[i] >= 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	/**
+	 * @return the value of the key, or -1 if the key was not put.
+	 */
+	int get(long key) {
+		for (int i = slot(key); values[i] >= 0; i = (i + 1) & mask)
+			if (keys[i] == key)
+				return values[i];
+		return -1;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
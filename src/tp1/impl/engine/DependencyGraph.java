@@ -0,0 +1,196 @@
+package tp1.impl.engine;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.impl.engine.formula.Formula;
+import tp1.util.CellRange;
+
+/**
+ * Graph of the formula references of a single spreadsheet.
+ *
+ * Cells are identified by a long key, (row << 32 | col). For every formula cell the graph keeps
+ * the cells it reads (precedents) and, inversely, for every cell the formulas that read it (dependents).
+ * Importrange cells are tracked apart, since their values depend on remote state.
+ */
+public class DependencyGraph {
+
+	private static final long[] NONE = new long[0];
+
+	private final int rows, columns;
+
+	private final Map<Long, long[]> precedents;
+	private final Map<Long, Set<Long>> dependents;
+	private final Set<Long> importRanges;
+
+	public DependencyGraph(AbstractSpreadsheet sheet) {
+		this.rows = sheet.rows();
+		this.columns = sheet.columns();
+		this.precedents = new HashMap<>();
+		this.dependents = new HashMap<>();
+		this.importRanges = new HashSet<>();
+
+		sheet.forEachCell(this::put);
+	}
+
+	/**
+	 * Replaces the references of a cell by the ones found in its new raw value.
+	 * @param row - the row index of the cell.
+	 * @param col - the column index of the cell.
+	 * @param rawValue - the new raw value of the cell.
+	 */
+	public void put(int row, int col, String rawValue) {
+		long cell = key(row, col);
+
+		for (long precedent : precedents.getOrDefault(cell, NONE)) {
+			Set<Long> readers = dependents.get(precedent);
+			if (readers != null && readers.remove(cell) && readers.isEmpty())
+				dependents.remove(precedent);
+		}
+		precedents.remove(cell);
+		importRanges.remove(cell);
+
+		if (rawValue == null || rawValue.isEmpty() || rawValue.charAt(0) != '=')
+			return;
+
+		ParsedCell parsed = ParsedCell.of(rawValue);
+		if (parsed.type == SpreadsheetEngineImpl.CellType.IMPORTRANGE) {
+			importRanges.add(cell);
+			return;
+		}
+
+		long[] refs = references(parsed, rawValue, rows, columns);
+		if (refs.length == 0)
+			return;
+
+		precedents.put(cell, refs);
+		for (long precedent : refs)
+			dependents.computeIfAbsent(precedent, k -> new HashSet<>()).add(cell);
+	}
+
+	/**
+	 * The cells read by the formula of the given cell.
+	 */
+	public long[] precedentsOf(long cell) {
+		return precedents.getOrDefault(cell, NONE);
+	}
+
+	/**
+	 * Computes the set of cells whose values may change when the given cell changes,
+	 * i.e. the cell itself and every cell that transitively depends on it.
+	 */
+	public Set<Long> affectedBy(long cell) {
+		Set<Long> affected = new HashSet<>();
+		Deque<Long> pending = new ArrayDeque<>();
+		pending.add(cell);
+
+		while (!pending.isEmpty()) {
+			Long next = pending.poll();
+			if (affected.add(next))
+				pending.addAll(dependents.getOrDefault(next, Collections.emptySet()));
+		}
+		return affected;
+	}
+
+	/**
+	 * Tests if the sheet has importrange cells, whose values cannot be tracked locally.
+	 */
+	public boolean hasImportRanges() {
+		return !importRanges.isEmpty();
+	}
+
+	/**
+	 * Computes the cells of a range, plus every cell they transitively read.
+	 * @return the keys of the cells, or null if the sheet has importrange cells, as their values spill over other cells.
+	 */
+	static Set<Long> closureOf(AbstractSpreadsheet sheet, CellRange range) {
+		int rows = sheet.rows(), columns = sheet.columns();
+
+		boolean[] importRanges = new boolean[1];
+		sheet.forEachCell((row, col, rawValue) -> importRanges[0] |= SpreadsheetEngineImpl.isImportRange(rawValue));
+		if (importRanges[0])
+			return null;
+
+		Set<Long> closure = new HashSet<>();
+		Deque<Long> pending = new ArrayDeque<>();
+		for (int row = Math.max(0, range.topRow); row <= Math.min(rows - 1, range.botRow); row++)
+			for (int col = Math.max(0, range.topCol); col <= Math.min(columns - 1, range.botCol); col++)
+				pending.add(key(row, col));
+
+		while (!pending.isEmpty()) {
+			long cell = pending.poll();
+			if (!closure.add(cell))
+				continue;
+
+			String rawValue = sheet.cellRawValue(row(cell), col(cell));
+			if (SpreadsheetEngineImpl.parseRawValue(rawValue) == SpreadsheetEngineImpl.CellType.FORMULA)
+				for (long precedent : references(ParsedCell.of(rawValue), rawValue, rows, columns))
+					if (!closure.contains(precedent))
+						pending.add(precedent);
+		}
+		return closure;
+	}
+
+	/**
+	 * The cells referenced by a formula. Formulas not supported by the native parser are scanned for references.
+	 */
+	static long[] references(ParsedCell parsed, String rawValue, int rows, int columns) {
+		return parsed.formula != null ? references(parsed.formula, rows, columns) : references(rawValue, rows, columns);
+	}
+
+	/**
+	 * Extracts the cells referenced by a formula, expanding ranges and ignoring references
+	 * outside the sheet bounds and inside string literals.
+	 * @param formula - the raw formula, e.g. "=SUM(A1:B3)+C1"
+	 * @return the keys of the referenced cells.
+	 */
+	static long[] references(String formula, int rows, int columns) {
+		String text = STRING_LITERAL.matcher(formula).replaceAll("\"\"").toUpperCase().replace("$", "");
+
+		Set<Long> refs = new LinkedHashSet<>();
+		Matcher m = REFERENCE_PATTERN.matcher(text);
+		while (m.find()) {
+			int topCol = CellRange.col(m.group(1)), topRow = CellRange.row(m.group(2));
+			int botCol = topCol, botRow = topRow;
+			if (m.group(3) != null) {
+				botCol = CellRange.col(m.group(3));
+				botRow = CellRange.row(m.group(4));
+			}
+			for (int row = Math.max(0, Math.min(topRow, botRow)); row <= Math.min(rows - 1, Math.max(topRow, botRow)); row++)
+				for (int col = Math.max(0, Math.min(topCol, botCol)); col <= Math.min(columns - 1, Math.max(topCol, botCol)); col++)
+					refs.add(key(row, col));
+		}
+		return refs.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Extracts the cells referenced by a parsed formula, expanding ranges and ignoring references outside the sheet bounds.
+	 */
+	static long[] references(Formula formula, int rows, int columns) {
+		Set<Long> refs = new LinkedHashSet<>();
+		for (CellRange r : formula.references())
+			for (int row = Math.max(0, r.topRow); row <= Math.min(rows - 1, r.botRow); row++)
+				for (int col = Math.max(0, r.topCol); col <= Math.min(columns - 1, r.botCol); col++)
+					refs.add(key(row, col));
+		return refs.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	public static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	public static int row(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int col(long key) {
+		return (int) key;
+	}
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("\"[^\"]*\"");
+	private static final String CELL = "([A-Z]+)([1-9][0-9]*)";
+	private static final Pattern REFERENCE_PATTERN = Pattern.compile(
+			String.format("(?<![A-Z0-9_.])%s(?::%s)?(?![A-Z0-9_(])", CELL, CELL));
+}
@@ -0,0 +1,21 @@
+package tp1.impl.engine;
+
+import tp1.api.engine.SpreadsheetEngine;
+
+/**
+ * The available spreadsheet engines.
+ *
+ * Selected with -Dtp1.engine=gembox|native; -Dtp1.engine.incremental=true additionally makes the engine
+ * recompute only the cells affected by updates.
+ */
+public enum EngineType {
+	GEMBOX, NATIVE;
+
+	public static SpreadsheetEngine configured() {
+		EngineType type = valueOf(System.getProperty("tp1.engine", "gembox").toUpperCase());
+
+		PartialSpreadsheetEngine engine = type == NATIVE ? new NativeSpreadsheetEngine() : new SpreadsheetEngineImpl();
+
+		return Boolean.getBoolean("tp1.engine.incremental") ? IncrementalSpreadsheetEngine.getInstance(engine) : engine;
+	}
+}
@@ -0,0 +1,148 @@
+package tp1.impl.engine;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import tp1.api.engine.AbstractSpreadsheet;
+
+/**
+ * Resolves the importrange cells of a sheet before it is evaluated.
+ *
+ * The distinct (sheetURL, range) targets of a sheet are fetched concurrently, with a deadline for the whole
+ * batch, instead of one after the other as the engine meets them. Sheets that fetch without blocking do so
+ * without holding a thread per target; otherwise fetches run on a bounded executor. Targets not fetched
+ * by the deadline resolve to null, i.e. to an error value.
+ */
+class ImportRanges {
+
+	private static final int THREADS = Integer.getInteger("tp1.importrange.threads", 32);
+
+	private static final long TIMEOUT = Long.getLong("tp1.importrange.timeout", 5000);
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+		Thread t = new Thread(r, "importrange-fetcher");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Fetches every importrange target of a sheet, blocking until done.
+	 * @return a view of the sheet that answers rangeValues() with the prefetched values,
+	 * or the sheet itself if it has no importrange cells or was already prefetched.
+	 */
+	static AbstractSpreadsheet prefetch(AbstractSpreadsheet sheet) {
+		try {
+			return prefetchAsync(sheet).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return sheet;
+		} catch (ExecutionException e) {
+			return sheet;
+		}
+	}
+
+	/**
+	 * Fetches every importrange target of a sheet, without blocking.
+	 */
+	static CompletableFuture<AbstractSpreadsheet> prefetchAsync(AbstractSpreadsheet sheet) {
+		if (sheet instanceof Prefetched)
+			return CompletableFuture.completedFuture(sheet);
+
+		return fetch(sheet, targetsOf(sheet));
+	}
+
+	/**
+	 * Fetches every importrange target of a sheet, without blocking, reading its cells under a lock
+	 * that is released before the targets are fetched.
+	 */
+	static CompletableFuture<AbstractSpreadsheet> prefetchAsync(AbstractSpreadsheet sheet, Lock lock) {
+		if (sheet instanceof Prefetched)
+			return CompletableFuture.completedFuture(sheet);
+
+		Set<Pair<String, String>> targets;
+		lock.lock();
+		try {
+			targets = targetsOf(sheet);
+		} finally {
+			lock.unlock();
+		}
+		return fetch(sheet, targets);
+	}
+
+	private static Set<Pair<String, String>> targetsOf(AbstractSpreadsheet sheet) {
+		Set<Pair<String, String>> targets = new LinkedHashSet<>();
+		sheet.forEachCell((row, col, rawVal) -> {
+			if (SpreadsheetEngineImpl.parseRawValue(rawVal) == SpreadsheetEngineImpl.CellType.IMPORTRANGE) {
+				ParsedCell parsed = ParsedCell.of(rawVal);
+				if (parsed.sheetURL != null)
+					targets.add(ImmutablePair.of(parsed.sheetURL, parsed.range));
+			}
+		});
+		return targets;
+	}
+
+	private static CompletableFuture<AbstractSpreadsheet> fetch(AbstractSpreadsheet sheet, Set<Pair<String, String>> targets) {
+		if (targets.isEmpty())
+			return CompletableFuture.completedFuture(sheet);
+
+		Map<Pair<String, String>, CompletableFuture<String[][]>> fetches = new HashMap<>();
+		for (Pair<String, String> target : targets)
+			fetches.put(target, sheet.rangeValuesAsync(target.getLeft(), target.getRight(), executor)
+					.exceptionally(e -> null)
+					.completeOnTimeout(null, TIMEOUT, TimeUnit.MILLISECONDS));
+
+		return CompletableFuture.allOf(fetches.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+			Map<Pair<String, String>, String[][]> fetched = new HashMap<>();
+			fetches.forEach((target, fetch) -> fetched.put(target, fetch.join()));
+			return new Prefetched(sheet, fetched);
+		});
+	}
+
+	/**
+	 * A sheet whose importrange targets were fetched.
+	 */
+	static class Prefetched implements AbstractSpreadsheet {
+		private final AbstractSpreadsheet sheet;
+		private final Map<Pair<String, String>, String[][]> fetched;
+
+		Prefetched(AbstractSpreadsheet sheet, Map<Pair<String, String>, String[][]> fetched) {
+			this.sheet = sheet;
+			this.fetched = fetched;
+		}
+
+		@Override
+		public int rows() {
+			return sheet.rows();
+		}
+
+		@Override
+		public int columns() {
+			return sheet.columns();
+		}
+
+		@Override
+		public String sheetId() {
+			return sheet.sheetId();
+		}
+
+		@Override
+		public String cellRawValue(int row, int col) {
+			return sheet.cellRawValue(row, col);
+		}
+
+		@Override
+		public void forEachCell(CellVisitor visitor) {
+			sheet.forEachCell(visitor);
+		}
+
+		@Override
+		public String[][] rangeValues(String sheetURL, String range) {
+			Pair<String, String> target = ImmutablePair.of(sheetURL, range);
+			return fetched.containsKey(target) ? fetched.get(target) : sheet.rangeValues(sheetURL, range);
+		}
+	}
+}
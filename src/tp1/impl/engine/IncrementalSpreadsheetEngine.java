@@ -0,0 +1,118 @@
+package tp1.impl.engine;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.util.CellRange;
+import tp1.util.LRUCache;
+
+/**
+ * Engine that keeps, per spreadsheet, the last computed values and the graph of formula references.
+ *
+ * The first computation of a sheet is a full one. Afterwards, cellUpdated() marks the updated cell and
+ * its transitive dependents dirty, and the next computation only recomputes those cells.
+ * Sheets with importrange cells are always fully recomputed, as their values depend on remote state.
+ *
+ * The states of the sheets are bounded by their total number of cells (-Dtp1.engine.states.cells), the
+ * least recently used ones being dropped first. Sheets without a state are fully recomputed.
+ */
+public class IncrementalSpreadsheetEngine implements SpreadsheetEngine {
+
+	// maximum total number of cells of the sheets whose state is kept
+	private static final long STATES_CELLS = Long.getLong("tp1.engine.states.cells", 4_000_000L);
+
+	private final PartialSpreadsheetEngine engine;
+
+	private final LRUCache<String, SheetState> states;
+
+	private IncrementalSpreadsheetEngine(PartialSpreadsheetEngine engine) {
+		this.engine = engine;
+		this.states = new LRUCache<>(STATES_CELLS, state -> state.cells);
+	}
+
+	static SpreadsheetEngine getInstance(PartialSpreadsheetEngine engine) {
+		return new IncrementalSpreadsheetEngine(engine);
+	}
+
+	@Override
+	public String[][] computeSpreadsheetValues(AbstractSpreadsheet sheet) {
+		SheetState state = states.get(sheet.sheetId());
+		if (state == null) {
+			state = new SheetState((long) sheet.rows() * sheet.columns());
+			states.put(sheet.sheetId(), state);
+		}
+
+		synchronized (state) {
+			if (state.graph == null)
+				state.graph = new DependencyGraph(sheet);
+
+			if (state.values == null || state.graph.hasImportRanges())
+				state.values = engine.computeSpreadsheetValues(sheet);
+			else if (!state.dirty.isEmpty())
+				state.values = engine.computeCells(sheet, state.values, state.dirty, state.graph);
+
+			state.dirty.clear();
+			return state.values;
+		}
+	}
+
+	/**
+	 * Served from the last computed values when they are up to date, otherwise computed apart from them.
+	 */
+	@Override
+	public String[][] computeRangeValues(AbstractSpreadsheet sheet, CellRange range) {
+		SheetState state = states.get(sheet.sheetId());
+		if (state != null)
+			synchronized (state) {
+				if (state.values != null && state.dirty.isEmpty() && !state.graph.hasImportRanges())
+					return range.extractRangeValuesFrom(state.values);
+			}
+		return engine.computeRangeValues(sheet, range);
+	}
+
+	@Override
+	public CompletableFuture<AbstractSpreadsheet> prefetch(AbstractSpreadsheet sheet) {
+		return engine.prefetch(sheet);
+	}
+
+	@Override
+	public CompletableFuture<AbstractSpreadsheet> prefetch(AbstractSpreadsheet sheet, Lock lock) {
+		return engine.prefetch(sheet, lock);
+	}
+
+	@Override
+	public void cellUpdated(AbstractSpreadsheet sheet, int row, int col) {
+		SheetState state = states.get(sheet.sheetId());
+		if (state == null)
+			return;
+
+		synchronized (state) {
+			if (state.graph == null)
+				return;
+
+			state.graph.put(row, col, sheet.cellRawValue(row, col));
+			state.dirty.addAll(state.graph.affectedBy(DependencyGraph.key(row, col)));
+		}
+	}
+
+	@Override
+	public void discard(String sheetId) {
+		states.remove(sheetId);
+	}
+
+	static class SheetState {
+		// the number of cells of the sheet, as the weight of its state
+		final long cells;
+		DependencyGraph graph;
+		String[][] values;
+		final Set<Long> dirty = new HashSet<>();
+
+		SheetState(long cells) {
+			this.cells = cells;
+		}
+	}
+}
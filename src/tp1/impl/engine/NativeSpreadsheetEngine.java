@@ -0,0 +1,336 @@
+package tp1.impl.engine;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.Lock;
+import java.util.function.ObjLongConsumer;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.impl.engine.SpreadsheetEngineImpl.CellType;
+import tp1.impl.engine.formula.CellValues;
+import tp1.impl.engine.formula.Expr;
+import tp1.impl.engine.formula.Formula;
+import tp1.impl.engine.formula.Values;
+import tp1.util.CellRange;
+
+/**
+ * Engine that evaluates formulas natively, straight into the matrix of values, without building a GemBox workbook.
+ *
+ * Formulas are parsed once into a syntax tree and evaluated in dependency order; cells in reference
+ * cycles evaluate to an error. Supports arithmetic, comparisons, concatenation and SUM/AVERAGE/MIN/MAX/IF.
+ * Importrange values spill over the blank cells of the range anchored at the importrange cell.
+ *
+ * Computations with at least -Dtp1.engine.parallel.threshold formulas are evaluated a dependency level at
+ * a time, the formulas of each level in parallel, on a pool of -Dtp1.engine.parallelism threads.
+ */
+public class NativeSpreadsheetEngine implements PartialSpreadsheetEngine {
+
+	// minimum number of formulas for a computation to be evaluated in parallel
+	private static final int PARALLEL_THRESHOLD = Integer.getInteger("tp1.engine.parallel.threshold", 10_000);
+
+	// formulas evaluated by each parallel task; smaller levels are evaluated by the calling thread
+	private static final int PARALLEL_GRAIN = 256;
+
+	private static final ForkJoinPool pool = new ForkJoinPool(
+			Integer.getInteger("tp1.engine.parallelism", Runtime.getRuntime().availableProcessors()));
+
+	NativeSpreadsheetEngine() {
+	}
+
+	static public SpreadsheetEngine getInstance() {
+		return new NativeSpreadsheetEngine();
+	}
+
+	@Override
+	public String[][] computeSpreadsheetValues(AbstractSpreadsheet sheet) {
+		sheet = ImportRanges.prefetch(sheet);
+
+		int rows = sheet.rows(), cols = sheet.columns();
+		Object[][] values = new Object[rows][cols];
+		for (Object[] row : values)
+			Arrays.fill(row, "");
+
+		Map<Long, Formula> formulas = new HashMap<>();
+		List<Long> importRanges = new ArrayList<>();
+
+		sheet.forEachCell((row, col, rawVal) -> {
+			if (SpreadsheetEngineImpl.parseRawValue(rawVal) == CellType.IMPORTRANGE)
+				importRanges.add(DependencyGraph.key(row, col));
+			else
+				values[row][col] = parse(rawVal, DependencyGraph.key(row, col), formulas);
+		});
+
+		// in sheet order, so that the first of overlapping importranges takes the blank cells
+		Collections.sort(importRanges);
+		for (long key : importRanges)
+			importRange(sheet, values, DependencyGraph.row(key), DependencyGraph.col(key));
+
+		evaluate(formulas, rows, cols, (row, col) -> values[row][col],
+				(value, key) -> values[DependencyGraph.row(key)][DependencyGraph.col(key)] = value);
+
+		var cells = new String[rows][cols];
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				cells[row][col] = Values.format(values[row][col]);
+		return cells;
+	}
+
+	@Override
+	public CompletableFuture<AbstractSpreadsheet> prefetch(AbstractSpreadsheet sheet) {
+		return ImportRanges.prefetchAsync(sheet);
+	}
+
+	@Override
+	public CompletableFuture<AbstractSpreadsheet> prefetch(AbstractSpreadsheet sheet, Lock lock) {
+		return ImportRanges.prefetchAsync(sheet, lock);
+	}
+
+	@Override
+	public String[][] computeCells(AbstractSpreadsheet sheet, String[][] values, Set<Long> cells, DependencyGraph graph) {
+		Map<Long, Object> computed = new HashMap<>();
+		Map<Long, Formula> formulas = new LinkedHashMap<>();
+
+		for (long key : cells) {
+			Object value = parse(sheet.cellRawValue(DependencyGraph.row(key), DependencyGraph.col(key)), key, formulas);
+			if (value != null)
+				computed.put(key, value);
+		}
+
+		// cells outside the recomputed set keep their previous values
+		evaluate(formulas, values.length, values.length == 0 ? 0 : values[0].length, (row, col) -> {
+			long key = DependencyGraph.key(row, col);
+			return cells.contains(key) ? computed.get(key) : constant(values[row][col]);
+		}, (value, key) -> computed.put(key, value));
+
+		var result = PartialSpreadsheetEngine.copyOnWrite(values, cells);
+		for (long key : cells)
+			result[DependencyGraph.row(key)][DependencyGraph.col(key)] = Values.format(computed.get(key));
+		return result;
+	}
+
+	/**
+	 * Only the cells of the range, and the cells they transitively read, are evaluated.
+	 * Sheets with importrange cells are fully computed.
+	 */
+	@Override
+	public String[][] computeRangeValues(AbstractSpreadsheet sheet, CellRange range) {
+		Set<Long> cells = DependencyGraph.closureOf(sheet, range);
+		if (cells == null)
+			return range.extractRangeValuesFrom(computeSpreadsheetValues(sheet));
+
+		Map<Long, Object> computed = new HashMap<>();
+		Map<Long, Formula> formulas = new LinkedHashMap<>();
+
+		for (long key : cells) {
+			Object value = parse(sheet.cellRawValue(DependencyGraph.row(key), DependencyGraph.col(key)), key, formulas);
+			if (value != null)
+				computed.put(key, value);
+		}
+
+		evaluate(formulas, sheet.rows(), sheet.columns(), (row, col) -> computed.get(DependencyGraph.key(row, col)),
+				(value, key) -> computed.put(key, value));
+
+		var result = new String[range.rows()][range.cols()];
+		for (int r = 0; r < range.rows(); r++)
+			for (int c = 0; c < range.cols(); c++) {
+				Object value = computed.get(DependencyGraph.key(range.topRow + r, range.topCol + c));
+				result[r][c] = Values.format(value != null ? value : Expr.ERROR);
+			}
+		return result;
+	}
+
+	/**
+	 * Parses a raw value. Formulas are collected to be evaluated later, and have no value yet.
+	 */
+	private static Object parse(String rawVal, long key, Map<Long, Formula> formulas) {
+		ParsedCell parsed = ParsedCell.of(rawVal);
+		switch (parsed.type) {
+			case FORMULA:
+				if (parsed.formula == null)
+					return Expr.ERROR;
+				formulas.put(key, parsed.formula);
+				return null;
+			case IMPORTRANGE:
+				// only resolved by full computations
+				return Expr.ERROR;
+			default:
+				return constant(parsed, rawVal);
+		}
+	}
+
+	/**
+	 * The value of a raw value that is not a formula, or of a previously computed value.
+	 */
+	static Object constant(String rawVal) {
+		return constant(ParsedCell.of(rawVal), rawVal);
+	}
+
+	private static Object constant(ParsedCell parsed, String rawVal) {
+		switch (parsed.type) {
+			case BOOLEAN:
+				return parsed.bool;
+			case NUMBER:
+				return parsed.number;
+			case EMPTY:
+				return "";
+			default:
+				return Expr.ERROR.toString().equals(rawVal) ? Expr.ERROR : rawVal;
+		}
+	}
+
+	private static void importRange(AbstractSpreadsheet sheet, Object[][] values, int row0, int col0) {
+		values[row0][col0] = Expr.ERROR;
+
+		ParsedCell parsed = ParsedCell.of(sheet.cellRawValue(row0, col0));
+		if (parsed.sheetURL == null)
+			return;
+
+		var range = new CellRange(parsed.range);
+		var imported = sheet.rangeValues(parsed.sheetURL, parsed.range);
+		if (imported == null)
+			return;
+
+		for (int r = 0; r < range.rows() && row0 + r < values.length; r++)
+			for (int c = 0; c < range.cols() && col0 + c < values[row0 + r].length; c++)
+				if ((r == 0 && c == 0) || "".equals(values[row0 + r][col0 + c]))
+					values[row0 + r][col0 + c] = constant(imported[r][c]);
+	}
+
+	/**
+	 * Evaluates formulas in dependency order, so that every formula reads already evaluated cells.
+	 * Formulas in reference cycles, or depending on them, evaluate to an error.
+	 *
+	 * Formulas are evaluated a level at a time, starting with those that read no formulas: the formulas of a
+	 * level only read cells of previous levels, so large levels are evaluated in parallel. Results are only
+	 * stored once their whole level is evaluated, by the calling thread, so cells are never read while stored.
+	 * @param formulas - the formulas to evaluate, by cell key.
+	 * @param cells - reads the values of cells, including the results already stored.
+	 * @param results - stores the result of a formula.
+	 */
+	private static void evaluate(Map<Long, Formula> formulas, int rows, int cols, CellValues cells, ObjLongConsumer<Object> results) {
+		CellValues bounded = (row, col) -> {
+			if (row < 0 || row >= rows || col < 0 || col >= cols)
+				return Expr.ERROR;
+			Object value = cells.valueAt(row, col);
+			return value != null ? value : Expr.ERROR;
+		};
+
+		// formulas are numbered, and their references resolved to the numbers of the formulas they read
+		int n = formulas.size();
+		long[] keys = new long[n];
+		Formula[] code = new Formula[n];
+		CellIndex index = new CellIndex(n);
+		int f = 0;
+		for (Map.Entry<Long, Formula> e : formulas.entrySet()) {
+			keys[f] = e.getKey();
+			code[f] = e.getValue();
+			index.put(keys[f], f);
+			f++;
+		}
+
+		// number of formula precedents not yet evaluated, and the edges from precedents to dependents
+		int[] pending = new int[n];
+		int[] from = new int[Math.max(16, n)], to = new int[from.length];
+		int edges = 0;
+		for (f = 0; f < n; f++)
+			for (CellRange r : code[f].references())
+				for (int row = Math.max(0, r.topRow); row <= Math.min(rows - 1, r.botRow); row++)
+					for (int col = Math.max(0, r.topCol); col <= Math.min(cols - 1, r.botCol); col++) {
+						int precedent = index.get(DependencyGraph.key(row, col));
+						if (precedent < 0)
+							continue;
+						if (edges == from.length) {
+							from = Arrays.copyOf(from, 2 * edges);
+							to = Arrays.copyOf(to, 2 * edges);
+						}
+						from[edges] = precedent;
+						to[edges] = f;
+						edges++;
+						pending[f]++;
+					}
+
+		// the dependents of formula p are dependents[start[p]..start[p + 1]-1]
+		int[] start = new int[n + 1];
+		for (int e = 0; e < edges; e++)
+			start[from[e] + 1]++;
+		for (int p = 0; p < n; p++)
+			start[p + 1] += start[p];
+		int[] dependents = new int[edges];
+		int[] next = Arrays.copyOf(start, n);
+		for (int e = 0; e < edges; e++)
+			dependents[next[from[e]]++] = to[e];
+
+		int[] level = new int[n];
+		int size = 0;
+		for (f = 0; f < n; f++)
+			if (pending[f] == 0)
+				level[size++] = f;
+
+		boolean parallel = n >= PARALLEL_THRESHOLD;
+		Object[] values = new Object[n];
+		int[] following = new int[n];
+		while (size > 0) {
+			LevelTask task = new LevelTask(code, bounded, level, values, 0, size);
+			if (parallel && size >= 2 * PARALLEL_GRAIN)
+				pool.invoke(task);
+			else
+				task.compute();
+
+			int followingSize = 0;
+			for (int i = 0; i < size; i++) {
+				int evaluated = level[i];
+				results.accept(values[evaluated], keys[evaluated]);
+
+				for (int d = start[evaluated]; d < start[evaluated + 1]; d++)
+					if (--pending[dependents[d]] == 0)
+						following[followingSize++] = dependents[d];
+			}
+
+			int[] swap = level;
+			level = following;
+			following = swap;
+			size = followingSize;
+		}
+
+		for (f = 0; f < n; f++)
+			if (pending[f] > 0)
+				results.accept(Expr.ERROR, keys[f]);
+	}
+
+	/**
+	 * Evaluates a slice of the formulas of a level, splitting it among tasks of at most PARALLEL_GRAIN formulas.
+	 */
+	static class LevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Formula[] code;
+		final CellValues cells;
+		final int[] level;
+		final Object[] values;
+		final int from, to;
+
+		LevelTask(Formula[] code, CellValues cells, int[] level, Object[] values, int from, int to) {
+			this.code = code;
+			this.cells = cells;
+			this.level = level;
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > PARALLEL_GRAIN && inForkJoinPool()) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new LevelTask(code, cells, level, values, from, mid),
+						new LevelTask(code, cells, level, values, mid, to));
+				return;
+			}
+			for (int i = from; i < to; i++)
+				values[level[i]] = code[level[i]].evaluate(cells);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tp1.impl.engine.SpreadsheetEngineImpl.CellType;
+import tp1.impl.engine.formula.Formula;
+import tp1.impl.engine.formula.FormulaException;
+import tp1.util.LRUCache;
+
+/**
+ * The parsed form of a raw cell value.
+ *
+ * Formulas and importranges are parsed once and shared through a bounded cache keyed by the raw text,
+ * so sheets with many identical formulas parse each distinct text once. The cache is split in segments,
+ * each evicting its least recently used formulas, so that threads seldom contend for the same segment.
+ *
+ * Constants are not cached: empty, text and boolean cells share one instance per value, and numbers,
+ * whose text is classified without allocating, get a new instance holding the parsed number.
+ */
+final class ParsedCell {
+
+	// maximum number of distinct formulas kept parsed
+	private static final int MAX_CACHED = Integer.getInteger("tp1.engine.parse.cache", 1 << 16);
+
+	private static final int SEGMENTS = 16;
+
+	private static final List<LRUCache<String, ParsedCell>> cache = new ArrayList<>(SEGMENTS);
+
+	static {
+		for (int i = 0; i < SEGMENTS; i++)
+			cache.add(new LRUCache<>(Math.max(1, MAX_CACHED / SEGMENTS), parsed -> 1));
+	}
+
+	private static final ParsedCell EMPTY = new ParsedCell(CellType.EMPTY);
+	private static final ParsedCell TEXT = new ParsedCell(CellType.TEXT);
+	private static final ParsedCell TRUE = new ParsedCell(CellType.BOOLEAN, 0, true, null, null, null);
+	private static final ParsedCell FALSE = new ParsedCell(CellType.BOOLEAN, 0, false, null, null, null);
+
+	final CellType type;
+	final double number;
+	final boolean bool;
+	// FORMULA, null if it is not supported by the native engine
+	final Formula formula;
+	// IMPORTRANGE, null if malformed
+	final String sheetURL, range;
+
+	private ParsedCell(CellType type) {
+		this(type, 0, false, null, null, null);
+	}
+
+	private ParsedCell(CellType type, double number, boolean bool, Formula formula, String sheetURL, String range) {
+		this.type = type;
+		this.number = number;
+		this.bool = bool;
+		this.formula = formula;
+		this.sheetURL = sheetURL;
+		this.range = range;
+	}
+
+	static ParsedCell of(String rawVal) {
+		switch (SpreadsheetEngineImpl.parseRawValue(rawVal)) {
+			case EMPTY:
+				return EMPTY;
+			case BOOLEAN:
+				return rawVal.equalsIgnoreCase("true") ? TRUE : FALSE;
+			case NUMBER:
+				return new ParsedCell(CellType.NUMBER, Double.parseDouble(rawVal), false, null, null, null);
+			case TEXT:
+				return TEXT;
+			default:
+				LRUCache<String, ParsedCell> segment = cache.get((rawVal.hashCode() & 0x7fffffff) % SEGMENTS);
+				ParsedCell parsed = segment.get(rawVal);
+				if (parsed == null) {
+					parsed = parse(rawVal);
+					segment.put(rawVal, parsed);
+				}
+				return parsed;
+		}
+	}
+
+	private static ParsedCell parse(String rawVal) {
+		if (SpreadsheetEngineImpl.isImportRange(rawVal)) {
+			var matcher = SpreadsheetEngineImpl.IMPORTRANGE_PATTERN.matcher(rawVal);
+			if (matcher.matches())
+				return new ParsedCell(CellType.IMPORTRANGE, 0, false, null, matcher.group(1), matcher.group(2));
+			return new ParsedCell(CellType.IMPORTRANGE);
+		}
+
+		try {
+			return new ParsedCell(CellType.FORMULA, 0, false, Formula.parse(rawVal), null, null);
+		} catch (FormulaException x) {
+			return new ParsedCell(CellType.FORMULA);
+		}
+	}
+}
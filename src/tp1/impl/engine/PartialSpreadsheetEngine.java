@@ -0,0 +1,35 @@
+package tp1.impl.engine;
+
+import java.util.Set;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+
+/**
+ * Engine able to recompute only some cells of a spreadsheet, given the previously computed values of the others.
+ */
+interface PartialSpreadsheetEngine extends SpreadsheetEngine {
+
+	/**
+	 * Recomputes only the given cells of a spreadsheet. Every other cell they read keeps its previously computed value.
+	 * @param sheet - the spreadsheet.
+	 * @param values - the previously computed values, which are left untouched.
+	 * @param cells - the keys of the cells to recompute.
+	 * @param graph - the reference graph of the spreadsheet.
+	 * @return a copy of values with the given cells recomputed.
+	 */
+	String[][] computeCells(AbstractSpreadsheet sheet, String[][] values, Set<Long> cells, DependencyGraph graph);
+
+	/**
+	 * Copies values, cloning only the rows of the given cells, so that rows already handed out are never modified.
+	 */
+	static String[][] copyOnWrite(String[][] values, Set<Long> cells) {
+		var result = values.clone();
+		for (long key : cells) {
+			int row = DependencyGraph.row(key);
+			if (result[row] == values[row])
+				result[row] = values[row].clone();
+		}
+		return result;
+	}
+}
@@ -1,6 +1,12 @@
 package tp1.impl.engine;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Pattern;
 
 import com.gembox.spreadsheet.ExcelCell;
@@ -10,6 +16,7 @@ import com.gembox.spreadsheet.SpreadsheetInfo;
 
 import tp1.api.engine.AbstractSpreadsheet;
 import tp1.api.engine.SpreadsheetEngine;
+import tp1.impl.engine.formula.Values;
 import tp1.util.CellRange;
 
 
@@ -32,7 +39,7 @@ return sheet.getSheetId();
 @Override
 public String cellRawValue(int row, int col) {
 try {
-return sheet.getRawValues()[row][col];
+return sheet.extractCellRawValue(row, col);
 } catch (IndexOutOfBoundsException e) {
 return "#ERROR?";
 }
@@ -44,10 +51,10 @@ public String[][] getRangeValues(String sheetURL, String range) {
  */
 
 
-public class SpreadsheetEngineImpl implements SpreadsheetEngine {
+public class SpreadsheetEngineImpl implements PartialSpreadsheetEngine {
 	
 	private static final String ERROR = "#ERROR?";
-	private SpreadsheetEngineImpl() {		
+	SpreadsheetEngineImpl() {
 	}
 
 	static public SpreadsheetEngine getInstance() {
@@ -56,15 +63,26 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 	
 	
 	public String[][] computeSpreadsheetValues(AbstractSpreadsheet sheet) {
+		sheet = ImportRanges.prefetch(sheet);
+
 		ExcelFile workbook = new ExcelFile();
 		ExcelWorksheet worksheet = workbook.addWorksheet(sheet.sheetId());
 
-		for (int i = 0; i < sheet.rows(); i++)
-			for (int j = 0; j < sheet.columns(); j++) {
-				String rawVal = sheet.cellRawValue(i, j);
-				ExcelCell cell = worksheet.getCell(i, j);
-				setCell(sheet, worksheet, cell, rawVal);
-			}
+		// only non-empty cells are set, importranges last and in sheet order, as they only fill the blank cells
+		// of their range, which the first of overlapping importranges takes
+		List<Long> importRanges = new ArrayList<>();
+		sheet.forEachCell((row, col, rawVal) -> {
+			if (parseRawValue(rawVal) == CellType.IMPORTRANGE)
+				importRanges.add(DependencyGraph.key(row, col));
+			else
+				setCell(null, worksheet, worksheet.getCell(row, col), rawVal);
+		});
+
+		Collections.sort(importRanges);
+		for (long key : importRanges) {
+			int row = DependencyGraph.row(key), col = DependencyGraph.col(key);
+			setCell(sheet, worksheet, worksheet.getCell(row, col), sheet.cellRawValue(row, col));
+		}
 
 //		try {
 //			workbook.save("/tmp/" + sheet.sheetId() + ".xls");
@@ -76,32 +94,107 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 		var cells = new String[sheet.rows()][sheet.columns()];
 		for (int row = 0; row < sheet.rows(); row++) {
 			for (int col = 0; col < sheet.columns(); col++) {
-				ExcelCell cell = worksheet.getCell(row, col);
-				var value = cell.getValue();
-				cells[row][col] = value != null ? value.toString() : ERROR;
+				var value = worksheet.getCell(row, col).getValue();
+				if (value != null)
+					cells[row][col] = value.toString();
+				else
+					cells[row][col] = sheet.cellRawValue(row, col).isEmpty() ? "" : ERROR;
 			}
 		}
 		return cells;
 	}
+
+	@Override
+	public CompletableFuture<AbstractSpreadsheet> prefetch(AbstractSpreadsheet sheet) {
+		return ImportRanges.prefetchAsync(sheet);
+	}
+
+	@Override
+	public CompletableFuture<AbstractSpreadsheet> prefetch(AbstractSpreadsheet sheet, Lock lock) {
+		return ImportRanges.prefetchAsync(sheet, lock);
+	}
+
+	/**
+	 * Every other cell read by the recomputed cells is fed to the workbook with its previously computed value,
+	 * instead of its raw value.
+	 */
+	@Override
+	public String[][] computeCells(AbstractSpreadsheet sheet, String[][] values, Set<Long> cells, DependencyGraph graph) {
+		ExcelFile workbook = new ExcelFile();
+		ExcelWorksheet worksheet = workbook.addWorksheet(sheet.sheetId());
+
+		for (long key : cells)
+			for (long precedent : graph.precedentsOf(key))
+				if (!cells.contains(precedent)) {
+					int row = DependencyGraph.row(precedent), col = DependencyGraph.col(precedent);
+					setCell(sheet, worksheet, worksheet.getCell(row, col), values[row][col]);
+				}
+
+		for (long key : cells) {
+			int row = DependencyGraph.row(key), col = DependencyGraph.col(key);
+			setCell(sheet, worksheet, worksheet.getCell(row, col), sheet.cellRawValue(row, col));
+		}
+
+		worksheet.calculate();
+
+		var result = PartialSpreadsheetEngine.copyOnWrite(values, cells);
+		for (long key : cells) {
+			int row = DependencyGraph.row(key), col = DependencyGraph.col(key);
+			var value = worksheet.getCell(row, col).getValue();
+			result[row][col] = value != null ? value.toString() : ERROR;
+		}
+		return result;
+	}
+
+	/**
+	 * Only the cells of the range, and the cells they transitively read, are fed to the workbook.
+	 * Sheets with importrange cells are fully computed.
+	 */
+	@Override
+	public String[][] computeRangeValues(AbstractSpreadsheet sheet, CellRange range) {
+		Set<Long> cells = DependencyGraph.closureOf(sheet, range);
+		if (cells == null)
+			return range.extractRangeValuesFrom(computeSpreadsheetValues(sheet));
+
+		ExcelFile workbook = new ExcelFile();
+		ExcelWorksheet worksheet = workbook.addWorksheet(sheet.sheetId());
+
+		for (long key : cells) {
+			int row = DependencyGraph.row(key), col = DependencyGraph.col(key);
+			setCell(sheet, worksheet, worksheet.getCell(row, col), sheet.cellRawValue(row, col));
+		}
+
+		worksheet.calculate();
+
+		var result = new String[range.rows()][range.cols()];
+		for (int r = 0; r < range.rows(); r++)
+			for (int c = 0; c < range.cols(); c++) {
+				int row = range.topRow + r, col = range.topCol + c;
+				var value = cells.contains(DependencyGraph.key(row, col)) ? worksheet.getCell(row, col).getValue() : null;
+				result[r][c] = value != null ? value.toString() : ERROR;
+			}
+		return result;
+	}
+
+	public static boolean isImportRange(String rawVal) {
+		return rawVal.regionMatches(true, 0, IMPORTRANGE_FORMULA, 0, IMPORTRANGE_FORMULA.length());
+	}
 	
 	enum CellType { EMPTY, BOOLEAN, NUMBER, IMPORTRANGE, TEXT, FORMULA };
 	
 	static void setCell( AbstractSpreadsheet sheet, ExcelWorksheet worksheet, ExcelCell cell, String rawVal ) {
-		CellType type = parseRawValue( rawVal );
+		ParsedCell parsed = ParsedCell.of( rawVal );
 
-		switch (type) {
-			case BOOLEAN -> cell.setValue(Boolean.parseBoolean(rawVal));
-			case NUMBER -> cell.setValue(Double.parseDouble(rawVal));
+		switch (parsed.type) {
+			case BOOLEAN -> cell.setValue(parsed.bool);
+			case NUMBER -> cell.setValue(parsed.number);
 			case FORMULA -> cell.setFormula(rawVal);
 			case TEXT, EMPTY -> cell.setValue(rawVal);
 			case IMPORTRANGE -> {
-				var matcher = IMPORTRANGE_PATTERN.matcher(rawVal);
-				if (matcher.matches()) {
-					var sheetUrl = matcher.group(1);
-					var range = matcher.group(2);
-					var values = sheet.rangeValues(sheetUrl, range);
+				if (parsed.sheetURL != null) {
+					var values = sheet.rangeValues(parsed.sheetURL, parsed.range);
 					if (values != null)
-						applyRange(worksheet, cell, new CellRange(range), values);
+						applyRange(sheet, worksheet, cell, new CellRange(parsed.range), values);
 					else
 						cell.setValue(ERROR);
 				}
@@ -110,41 +203,43 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 	}
 	
 	
-	private static void applyRange(ExcelWorksheet worksheet, ExcelCell cell0, CellRange range, String[][] values) {
+	/**
+	 * Spills imported values from the importrange cell over the blank cells of the sheet, leaving the cells with
+	 * raw values, or already filled by another importrange, as they are.
+	 */
+	private static void applyRange(AbstractSpreadsheet sheet, ExcelWorksheet worksheet, ExcelCell cell0, CellRange range, String[][] values) {
 		int row0 = cell0.getRow().getIndex(), col0 = cell0.getColumn().getIndex();
 
-		for (int r = 0; r < range.rows(); r++)
-			for (int c = 0; c < range.cols(); c++) {
+		for (int r = 0; r < range.rows() && row0 + r < sheet.rows(); r++)
+			for (int c = 0; c < range.cols() && col0 + c < sheet.columns(); c++) {
 				var cell = worksheet.getCell(row0 + r, col0 + c);
-				setCell(null, worksheet, cell, values[r][c]);
+				boolean blank = sheet.cellRawValue(row0 + r, col0 + c).isEmpty() && cell.getValue() == null;
+				if ((r == 0 && c == 0) || blank)
+					setCell(null, worksheet, cell, values[r][c]);
 			}
 	}
 
+	/**
+	 * Classifies a raw value without allocating, in particular without using exceptions to detect numbers.
+	 */
 	static CellType parseRawValue(String rawVal) {
 		if (rawVal.length() == 0)
 			return CellType.EMPTY;
 
-		rawVal = rawVal.toLowerCase();
-
 		if (rawVal.charAt(0) == '=')
-			return rawVal.startsWith(IMPORTRANGE_FORMULA) ? CellType.IMPORTRANGE : CellType.FORMULA;
+			return isImportRange(rawVal) ? CellType.IMPORTRANGE : CellType.FORMULA;
 
-		if (rawVal.equals("true") || rawVal.equals("false"))
+		if (rawVal.equalsIgnoreCase("true") || rawVal.equalsIgnoreCase("false"))
 			return CellType.BOOLEAN;
 
-		try {
-			Double.parseDouble(rawVal);
-			return CellType.NUMBER;
-		} catch (Exception x) {
-		}
-		return CellType.TEXT;
+		return Values.isNumber(rawVal) ? CellType.NUMBER : CellType.TEXT;
 	}
-	
+
 	static {
 		SpreadsheetInfo.setLicense("FREE-LIMITED-KEY");
 	}
 	
 	private static final String URL_REGEX = "(.+)";
 	private static final String IMPORTRANGE_FORMULA = "=importrange";
-	private static final Pattern IMPORTRANGE_PATTERN = Pattern.compile(String.format("=importrange\\(\"%s\",\"(%s)\"\\)", URL_REGEX, CellRange.RANGE_REGEX));
+	static final Pattern IMPORTRANGE_PATTERN = Pattern.compile(String.format("=importrange\\(\"%s\",\"(%s)\"\\)", URL_REGEX, CellRange.RANGE_REGEX));
 }
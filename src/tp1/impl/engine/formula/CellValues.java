@@ -0,0 +1,14 @@
+package tp1.impl.engine.formula;
+
+/**
+ * Source of the cell values read while evaluating a formula.
+ *
+ * Values are either a Double, a Boolean, a String (empty for blank cells) or Expr.ERROR.
+ */
+public interface CellValues {
+
+	/**
+	 * The value of a cell, or Expr.ERROR if the cell is outside the sheet.
+	 */
+	Object valueAt(int row, int col);
+}
@@ -0,0 +1,169 @@
+package tp1.impl.engine.formula;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import tp1.util.CellRange;
+
+/**
+ * Node of the syntax tree of a parsed formula.
+ *
+ * Evaluation never throws: failures evaluate to ERROR, which propagates through every operator.
+ */
+public interface Expr {
+
+	Object ERROR = new Object() {
+		@Override
+		public String toString() {
+			return "#ERROR?";
+		}
+	};
+
+	Object evaluate(CellValues cells);
+
+	/**
+	 * Reports every cell or range of cells read by this expression.
+	 */
+	void references(Consumer<CellRange> consumer);
+
+	class Constant implements Expr {
+		final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		public Object evaluate(CellValues cells) {
+			return value;
+		}
+
+		public void references(Consumer<CellRange> consumer) {
+		}
+	}
+
+	class Ref implements Expr {
+		final int row, col;
+
+		Ref(int row, int col) {
+			this.row = row;
+			this.col = col;
+		}
+
+		public Object evaluate(CellValues cells) {
+			return cells.valueAt(row, col);
+		}
+
+		public void references(Consumer<CellRange> consumer) {
+			consumer.accept(new CellRange(row, col, row, col));
+		}
+	}
+
+	/**
+	 * A range of cells, only meaningful as a function argument.
+	 */
+	class Range implements Expr {
+		final CellRange range;
+
+		Range(CellRange range) {
+			this.range = range;
+		}
+
+		public Object evaluate(CellValues cells) {
+			return ERROR;
+		}
+
+		public void references(Consumer<CellRange> consumer) {
+			consumer.accept(range);
+		}
+	}
+
+	class Negate implements Expr {
+		final Expr operand;
+
+		Negate(Expr operand) {
+			this.operand = operand;
+		}
+
+		public Object evaluate(CellValues cells) {
+			double v = Values.toNumber(operand.evaluate(cells));
+			return Double.isNaN(v) ? ERROR : -v;
+		}
+
+		public void references(Consumer<CellRange> consumer) {
+			operand.references(consumer);
+		}
+	}
+
+	class Binary implements Expr {
+		final String op;
+		final Expr left, right;
+
+		Binary(String op, Expr left, Expr right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		public Object evaluate(CellValues cells) {
+			Object l = left.evaluate(cells), r = right.evaluate(cells);
+			if (l == ERROR || r == ERROR)
+				return ERROR;
+
+			switch (op) {
+				case "&":
+					return Values.toText(l) + Values.toText(r);
+				case "=":
+					return Values.compare(l, r) == 0;
+				case "<>":
+					return Values.compare(l, r) != 0;
+				case "<":
+					return Values.compare(l, r) < 0;
+				case ">":
+					return Values.compare(l, r) > 0;
+				case "<=":
+					return Values.compare(l, r) <= 0;
+				case ">=":
+					return Values.compare(l, r) >= 0;
+			}
+
+			double a = Values.toNumber(l), b = Values.toNumber(r);
+			if (Double.isNaN(a) || Double.isNaN(b))
+				return ERROR;
+
+			double result;
+			switch (op) {
+				case "+" -> result = a + b;
+				case "-" -> result = a - b;
+				case "*" -> result = a * b;
+				case "/" -> result = a / b;
+				case "^" -> result = Math.pow(a, b);
+				default -> result = Double.NaN;
+			}
+			return Double.isFinite(result) ? result : ERROR;
+		}
+
+		public void references(Consumer<CellRange> consumer) {
+			left.references(consumer);
+			right.references(consumer);
+		}
+	}
+
+	class Call implements Expr {
+		final Function function;
+		final List<Expr> args;
+
+		Call(Function function, List<Expr> args) {
+			this.function = function;
+			this.args = args;
+		}
+
+		public Object evaluate(CellValues cells) {
+			return function.apply(args, cells);
+		}
+
+		public void references(Consumer<CellRange> consumer) {
+			for (Expr arg : args)
+				arg.references(consumer);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package tp1.impl.engine.formula;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tp1.util.CellRange;
+
+/**
+ * A formula parsed once into a syntax tree, that can then be evaluated any number of times.
+ */
+public class Formula {
+
+	private final Expr root;
+	private final List<CellRange> references;
+
+	Formula(Expr root) {
+		this.root = root;
+		List<CellRange> refs = new ArrayList<>();
+		root.references(refs::add);
+		this.references = Collections.unmodifiableList(refs);
+	}
+
+	/**
+	 * Parses a formula, e.g. "=SUM(A1:B3) * 2"
+	 * @param rawValue - the raw value of the cell, including the leading "="
+	 * @return the parsed formula
+	 * @throws FormulaException - if the formula is malformed or uses an unsupported function
+	 */
+	public static Formula parse(String rawValue) throws FormulaException {
+		return new Formula(new FormulaParser(rawValue).parse());
+	}
+
+	public Object evaluate(CellValues cells) {
+		return root.evaluate(cells);
+	}
+
+	/**
+	 * The cells and ranges of cells read by this formula.
+	 */
+	public List<CellRange> references() {
+		return references;
+	}
+}
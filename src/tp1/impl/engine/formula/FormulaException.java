@@ -0,0 +1,10 @@
+package tp1.impl.engine.formula;
+
+public class FormulaException extends Exception {
+
+	public FormulaException(String msg) {
+		super(msg);
+	}
+
+	private static final long serialVersionUID = 4715871123862117690L;
+}
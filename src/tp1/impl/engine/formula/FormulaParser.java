@@ -0,0 +1,252 @@
+package tp1.impl.engine.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tp1.util.CellRange;
+
+/**
+ * Recursive descent parser of formulas. Operators, from lowest to highest precedence:
+ * comparisons (= <> < > <= >=), concatenation (&), + -, * /, ^, unary -.
+ * As in Excel, unary - binds tighter than ^, so -2^2 is 4.
+ */
+class FormulaParser {
+
+	private final String text;
+	private int pos;
+
+	FormulaParser(String rawValue) {
+		this.text = rawValue;
+		this.pos = 0;
+	}
+
+	Expr parse() throws FormulaException {
+		skipSpaces();
+		expect('=');
+		Expr expr = comparison();
+		skipSpaces();
+		if (pos < text.length())
+			throw error("unexpected '" + text.charAt(pos) + "'");
+		return expr;
+	}
+
+	private Expr comparison() throws FormulaException {
+		Expr left = concat();
+		for (;;) {
+			skipSpaces();
+			String op;
+			if (accept("<>")) op = "<>";
+			else if (accept("<=")) op = "<=";
+			else if (accept(">=")) op = ">=";
+			else if (accept("<")) op = "<";
+			else if (accept(">")) op = ">";
+			else if (accept("=")) op = "=";
+			else return left;
+			left = new Expr.Binary(op, left, concat());
+		}
+	}
+
+	private Expr concat() throws FormulaException {
+		Expr left = additive();
+		while (skipSpaces() && accept("&"))
+			left = new Expr.Binary("&", left, additive());
+		return left;
+	}
+
+	private Expr additive() throws FormulaException {
+		Expr left = multiplicative();
+		for (;;) {
+			skipSpaces();
+			if (accept("+")) left = new Expr.Binary("+", left, multiplicative());
+			else if (accept("-")) left = new Expr.Binary("-", left, multiplicative());
+			else return left;
+		}
+	}
+
+	private Expr multiplicative() throws FormulaException {
+		Expr left = power();
+		for (;;) {
+			skipSpaces();
+			if (accept("*")) left = new Expr.Binary("*", left, power());
+			else if (accept("/")) left = new Expr.Binary("/", left, power());
+			else return left;
+		}
+	}
+
+	private Expr power() throws FormulaException {
+		Expr left = unary();
+		while (skipSpaces() && accept("^"))
+			left = new Expr.Binary("^", left, unary());
+		return left;
+	}
+
+	private Expr unary() throws FormulaException {
+		skipSpaces();
+		if (accept("-"))
+			return new Expr.Negate(unary());
+		if (accept("+"))
+			return unary();
+		return primary();
+	}
+
+	private Expr primary() throws FormulaException {
+		skipSpaces();
+		if (pos >= text.length())
+			throw error("unexpected end of formula");
+
+		char c = text.charAt(pos);
+		if (c == '(') {
+			pos++;
+			Expr expr = comparison();
+			skipSpaces();
+			expect(')');
+			return expr;
+		}
+		if (c == '"')
+			return new Expr.Constant(string());
+		if (Character.isDigit(c) || c == '.')
+			return new Expr.Constant(number());
+		if (isLetter(c) || c == '$')
+			return name();
+
+		throw error("unexpected '" + c + "'");
+	}
+
+	private Expr name() throws FormulaException {
+		boolean absoluteCol = accept("$");
+		String letters = letters();
+
+		if (!absoluteCol && pos < text.length() && text.charAt(pos) == '(') {
+			pos++;
+			return call(letters);
+		}
+
+		boolean absoluteRow = accept("$");
+		if (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+			int row = CellRange.row(digits()), col = CellRange.col(letters);
+			if (skipSpaces() && accept(":")) {
+				skipSpaces();
+				accept("$");
+				int botCol = CellRange.col(letters());
+				accept("$");
+				int botRow = CellRange.row(digits());
+				return new Expr.Range(new CellRange(Math.min(row, botRow), Math.min(col, botCol),
+						Math.max(row, botRow), Math.max(col, botCol)));
+			}
+			return new Expr.Ref(row, col);
+		}
+
+		if (!absoluteCol && !absoluteRow && letters.equals("TRUE"))
+			return new Expr.Constant(Boolean.TRUE);
+		if (!absoluteCol && !absoluteRow && letters.equals("FALSE"))
+			return new Expr.Constant(Boolean.FALSE);
+
+		throw error("unknown name " + letters);
+	}
+
+	private Expr call(String name) throws FormulaException {
+		Function function;
+		try {
+			function = Function.valueOf(name);
+		} catch (IllegalArgumentException x) {
+			throw error("unsupported function " + name);
+		}
+
+		List<Expr> args = new ArrayList<>();
+		skipSpaces();
+		if (!accept(")")) {
+			do {
+				args.add(comparison());
+				skipSpaces();
+			} while (accept(","));
+			expect(')');
+		}
+
+		if (args.size() < function.minArgs || args.size() > function.maxArgs)
+			throw error("wrong number of arguments to " + name);
+
+		return new Expr.Call(function, args);
+	}
+
+	private String letters() throws FormulaException {
+		int start = pos;
+		while (pos < text.length() && isLetter(text.charAt(pos)))
+			pos++;
+		if (start == pos)
+			throw error("expected a name");
+		return text.substring(start, pos).toUpperCase();
+	}
+
+	private String digits() throws FormulaException {
+		int start = pos;
+		while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+			pos++;
+		if (start == pos || text.charAt(start) == '0')
+			throw error("invalid row");
+		return text.substring(start, pos);
+	}
+
+	private Double number() throws FormulaException {
+		int start = pos;
+		while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+			pos++;
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			pos++;
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-'))
+				pos++;
+			while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+				pos++;
+		}
+		try {
+			return Double.valueOf(text.substring(start, pos));
+		} catch (NumberFormatException x) {
+			throw error("invalid number");
+		}
+	}
+
+	private String string() throws FormulaException {
+		StringBuilder sb = new StringBuilder();
+		pos++;
+		for (;;) {
+			if (pos >= text.length())
+				throw error("unterminated string");
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				// "" inside a string is an escaped quote
+				if (pos < text.length() && text.charAt(pos) == '"')
+					pos++;
+				else
+					return sb.toString();
+			}
+			sb.append(c);
+		}
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+
+	private boolean skipSpaces() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		return true;
+	}
+
+	private boolean accept(String token) {
+		if (text.startsWith(token, pos)) {
+			pos += token.length();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) throws FormulaException {
+		if (pos >= text.length() || text.charAt(pos) != c)
+			throw error("expected '" + c + "'");
+		pos++;
+	}
+
+	private FormulaException error(String msg) {
+		return new FormulaException(msg + " at position " + pos + " of " + text);
+	}
+}
@@ -0,0 +1,80 @@
+package tp1.impl.engine.formula;
+
+import java.util.List;
+
+import tp1.util.CellRange;
+
+/**
+ * The functions supported in formulas.
+ */
+public enum Function {
+
+	SUM(1, Integer.MAX_VALUE),
+	AVERAGE(1, Integer.MAX_VALUE),
+	MIN(1, Integer.MAX_VALUE),
+	MAX(1, Integer.MAX_VALUE),
+	IF(2, 3);
+
+	final int minArgs, maxArgs;
+
+	Function(int minArgs, int maxArgs) {
+		this.minArgs = minArgs;
+		this.maxArgs = maxArgs;
+	}
+
+	Object apply(List<Expr> args, CellValues cells) {
+		if (this == IF) {
+			Object cond = args.get(0).evaluate(cells);
+			if (cond == Expr.ERROR || cond instanceof String)
+				return Expr.ERROR;
+			boolean test = cond instanceof Boolean ? (Boolean) cond : (Double) cond != 0;
+			if (test)
+				return args.get(1).evaluate(cells);
+			return args.size() > 2 ? args.get(2).evaluate(cells) : Boolean.FALSE;
+		}
+
+		Aggregate acc = new Aggregate();
+		for (Expr arg : args) {
+			if (arg instanceof Expr.Range) {
+				CellRange r = ((Expr.Range) arg).range;
+				for (int row = r.topRow; row <= r.botRow; row++)
+					for (int col = r.topCol; col <= r.botCol; col++) {
+						Object v = cells.valueAt(row, col);
+						if (v == Expr.ERROR)
+							return Expr.ERROR;
+						// text and booleans inside ranges are ignored
+						if (v instanceof Double)
+							acc.add((Double) v);
+					}
+			} else {
+				double v = Values.toNumber(arg.evaluate(cells));
+				if (Double.isNaN(v))
+					return Expr.ERROR;
+				acc.add(v);
+			}
+		}
+
+		switch (this) {
+			case SUM:
+				return acc.sum;
+			case AVERAGE:
+				return acc.count == 0 ? Expr.ERROR : acc.sum / acc.count;
+			case MIN:
+				return acc.count == 0 ? 0.0 : acc.min;
+			default:
+				return acc.count == 0 ? 0.0 : acc.max;
+		}
+	}
+
+	private static class Aggregate {
+		double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		int count;
+
+		void add(double v) {
+			sum += v;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			count++;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package tp1.impl.engine.formula;
+
+/**
+ * Conversions between the values handled by formulas: Double, Boolean, String and Expr.ERROR.
+ */
+public class Values {
+
+	/**
+	 * Converts a value to a number, as arithmetic operators do. Blank cells count as 0 and booleans as 1 or 0.
+	 * @return the number, or NaN if the value is not numeric.
+	 */
+	public static double toNumber(Object value) {
+		if (value instanceof Double)
+			return (Double) value;
+		if (value instanceof Boolean)
+			return (Boolean) value ? 1 : 0;
+		if (value instanceof String) {
+			String s = ((String) value).trim();
+			if (s.isEmpty())
+				return 0;
+			if (isNumber(s))
+				return Double.parseDouble(s);
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Tests if Double.parseDouble accepts a decimal number:
+	 * optional blanks and sign, digits with an optional fraction and exponent, and an optional f/d suffix.
+	 */
+	public static boolean isNumber(String s) {
+		int i = 0, end = s.length();
+		while (i < end && s.charAt(i) <= ' ')
+			i++;
+		while (end > i && s.charAt(end - 1) <= ' ')
+			end--;
+
+		if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+			i++;
+
+		int digits = 0;
+		while (i < end && isDigit(s.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < end && s.charAt(i) == '.') {
+			i++;
+			while (i < end && isDigit(s.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0)
+			return false;
+
+		if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+				i++;
+			int expDigits = 0;
+			while (i < end && isDigit(s.charAt(i))) {
+				i++;
+				expDigits++;
+			}
+			if (expDigits == 0)
+				return false;
+		}
+
+		if (i < end && "fFdD".indexOf(s.charAt(i)) >= 0)
+			i++;
+
+		return i == end;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Converts a value to text, as the concatenation operator does. Integral numbers have no decimal part.
+	 */
+	public static String toText(Object value) {
+		if (value instanceof Double) {
+			double d = (Double) value;
+			if (d == Math.rint(d) && Math.abs(d) < 1e15)
+				return Long.toString((long) d);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Compares two values. Numbers sort before text, and text before booleans. Text comparison ignores case.
+	 * As in Excel, blank cells compare as 0 to numbers, as FALSE to booleans and as "" to text.
+	 */
+	public static int compare(Object a, Object b) {
+		if ("".equals(a))
+			a = blankAs(b);
+		else if ("".equals(b))
+			b = blankAs(a);
+
+		int ra = rank(a), rb = rank(b);
+		if (ra != rb)
+			return Integer.compare(ra, rb);
+		if (a instanceof Double)
+			return Double.compare((Double) a, (Double) b);
+		if (a instanceof Boolean)
+			return Boolean.compare((Boolean) a, (Boolean) b);
+		return ((String) a).compareToIgnoreCase((String) b);
+	}
+
+	/**
+	 * The textual form of a computed value, as returned to clients.
+	 */
+	public static String format(Object value) {
+		return value.toString();
+	}
+
+	private static Object blankAs(Object other) {
+		if (other instanceof Double)
+			return 0.0;
+		if (other instanceof Boolean)
+			return Boolean.FALSE;
+		return "";
+	}
+
+	private static int rank(Object value) {
+		if (value instanceof Double)
+			return 0;
+		if (value instanceof Boolean)
+			return 2;
+		return 1;
+	}
+}
@@ -0,0 +1,117 @@
+package tp1.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Executors that run the requests of the HTTP servers, selected with -Dtp1.server.executor:
+ *
+ * <ul>
+ * <li>cached - a platform thread per concurrent request, reused across requests (default). The SOAP servers
+ * always ran on such a pool; the REST servers ran on the dispatcher thread, as in direct mode, before
+ * this default.</li>
+ * <li>fixed - a fixed pool of -Dtp1.server.threads platform threads.</li>
+ * <li>virtual - a new virtual thread per request, on runtimes that support them, or else a thread per request.</li>
+ * <li>direct - requests run one at a time, on the thread that accepts them.</li>
+ * </ul>
+ *
+ * The cached and virtual modes admit at most -Dtp1.server.concurrency requests at a time; further requests
+ * wait to be dispatched until a running one completes.
+ */
+public class ServerExecutors {
+
+    private static Logger Log = Logger.getLogger(ServerExecutors.class.getName());
+
+    public static final String MODE = System.getProperty("tp1.server.executor", "cached");
+
+    // size of the pool in fixed mode
+    public static final int THREADS = Integer.getInteger("tp1.server.threads", 4 * Runtime.getRuntime().availableProcessors());
+
+    // maximum number of requests running at a time in cached and virtual modes
+    public static final int CONCURRENCY = Integer.getInteger("tp1.server.concurrency", 1024);
+
+    /**
+     * The number of requests that may block waiting for other requests at a time, e.g. long polls, leaving
+     * the rest of the executor to the requests that unblock them: none in direct mode, and half of the
+     * threads or of the admitted requests in the other modes.
+     */
+    public static int blockingLimit() {
+        switch (MODE) {
+            case "direct":
+                return 0;
+            case "fixed":
+                return THREADS / 2;
+            default:
+                return CONCURRENCY / 2;
+        }
+    }
+
+    /**
+     * @return the configured executor, or null in direct mode.
+     */
+    public static Executor configured() {
+        switch (MODE) {
+            case "direct":
+                return null;
+            case "fixed":
+                return Executors.newFixedThreadPool(THREADS);
+            case "virtual":
+                return limited(virtualThreadPerTask());
+            case "cached":
+                return limited(Executors.newCachedThreadPool());
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + MODE);
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task. Virtual threads are looked up reflectively, as they are not available
+     * in every runtime this code targets; without them, a platform thread is created per task.
+     */
+    static ExecutorService virtualThreadPerTask() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.warning("Virtual threads are not supported by this runtime, using a platform thread per request.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    static Executor limited(Executor executor) {
+        return new LimitedExecutor(executor, CONCURRENCY);
+    }
+
+    /**
+     * Executor that runs at most a given number of tasks at a time. Submitters wait for a permit, so a saturated
+     * server stops accepting requests instead of piling up threads.
+     */
+    static class LimitedExecutor implements Executor {
+        private final Executor executor;
+        private final Semaphore permits;
+
+        LimitedExecutor(Executor executor, int limit) {
+            this.executor = executor;
+            this.permits = new Semaphore(limit);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            permits.acquireUninterruptibly();
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+}
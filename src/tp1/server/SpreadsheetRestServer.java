@@ -1,9 +1,11 @@
 package tp1.server;
 
+import com.sun.net.httpserver.HttpServer;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 import tp1.discovery.Discovery;
 import tp1.server.resources.SpreadsheetResource;
+import tp1.util.SmileProvider;
 
 import java.net.InetAddress;
 import java.net.URI;
@@ -29,16 +31,15 @@ public class SpreadsheetRestServer {
             String ip = InetAddress.getLocalHost().getHostAddress();
             String serverURI = String.format("http://%s:%s/rest", ip, PORT);
 
-            ResourceConfig config = new ResourceConfig();
-            config.register(new SpreadsheetResource(domain, WebServiceType.REST));
-
-            JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config);
-
+            // collects announcements before serving, so that the resource finds the servers it depends on
             Discovery discovery = new Discovery( domain, SERVICE ,serverURI);
             SpreadsheetResource.setDiscovery(discovery);
-            discovery.startSendingAnnouncements();
             discovery.startCollectingAnnouncements();
 
+            start(domain, serverURI);
+
+            discovery.startSendingAnnouncements();
+
             Log.info(String.format("%s Server ready @ %s\n",  SERVICE, serverURI));
 
             //More code can be executed here...
@@ -46,4 +47,18 @@ public class SpreadsheetRestServer {
             Log.severe(e.getMessage());
         }
     }
+
+    /**
+     * Starts serving the spreadsheets of a domain, with the discovery set with SpreadsheetResource.setDiscovery().
+     */
+    public static HttpServer start(String domain, String serverURI) {
+        ResourceConfig config = new ResourceConfig();
+        config.register(new SpreadsheetResource(domain, WebServiceType.REST));
+        config.register(SmileProvider.class);
+
+        HttpServer server = JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config, false);
+        server.setExecutor(ServerExecutors.configured());
+        server.start();
+        return server;
+    }
 }
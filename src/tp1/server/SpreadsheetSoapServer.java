@@ -5,9 +5,9 @@ import jakarta.xml.ws.Endpoint;
 import tp1.discovery.Discovery;
 import tp1.server.resources.SpreadsheetResource;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 import static tp1.clients.SpreadsheetApiClient.SERVICE;
@@ -31,22 +31,31 @@ public class SpreadsheetSoapServer {
             String ip = InetAddress.getLocalHost().getHostAddress();
             String serverURI = String.format("http://%s:%s/soap", ip, PORT);
 
-
-            HttpServer server = HttpServer.create(new InetSocketAddress(ip, PORT), 0);
-
-            server.setExecutor(Executors.newCachedThreadPool());
-            Endpoint soapUsersEndpoint = Endpoint.create(new SpreadsheetResource(domain, WebServiceType.SOAP));
-            soapUsersEndpoint.publish(server.createContext(SOAP_USERS_PATH));
-            server.start();
-
+            // collects announcements before serving, so that the resource finds the servers it depends on
             Discovery discovery = new Discovery( domain, SERVICE, serverURI);
             SpreadsheetResource.setDiscovery(discovery);
-            discovery.startSendingAnnouncements();
             discovery.startCollectingAnnouncements();
 
+            start(domain, new InetSocketAddress(ip, PORT));
+
+            discovery.startSendingAnnouncements();
+
             Log.info(String.format("%s Server ready @ %s\n", SERVICE, serverURI));
         } catch (Exception e) {
             Log.severe(e.getMessage());
         }
     }
+
+    /**
+     * Starts serving the spreadsheets of a domain, with the discovery set with SpreadsheetResource.setDiscovery().
+     */
+    public static HttpServer start(String domain, InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+
+        server.setExecutor(ServerExecutors.configured());
+        Endpoint soapEndpoint = Endpoint.create(new SpreadsheetResource(domain, WebServiceType.SOAP));
+        soapEndpoint.publish(server.createContext(SOAP_USERS_PATH));
+        server.start();
+        return server;
+    }
 }
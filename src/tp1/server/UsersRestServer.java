@@ -1,10 +1,12 @@
 package tp1.server;
 
+import com.sun.net.httpserver.HttpServer;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 import tp1.api.service.rest.RestUsers;
 import tp1.discovery.Discovery;
 import tp1.server.resources.UsersResource;
+import tp1.util.SmileProvider;
 
 import java.net.InetAddress;
 import java.net.URI;
@@ -28,14 +30,15 @@ public class UsersRestServer {
 			String domain = args.length > 1 ? args[0] : "UnreliablePieceOfSht";
 
 			String ip = InetAddress.getLocalHost().getHostAddress();
-
-			ResourceConfig config = new ResourceConfig();
-			config.register(new UsersResource(domain, WebServiceType.REST));
-
 			String serverURI = String.format("http://%s:%s/rest", ip, PORT);
-			JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config);
 
+			// collects announcements before serving, so that the resource finds the servers it depends on
 			Discovery discovery = new Discovery(  domain, SERVICE, serverURI);
+			UsersResource.setDiscovery(discovery);
+			discovery.startCollectingAnnouncements();
+
+			start(domain, serverURI);
+
 			discovery.startSendingAnnouncements();
 
 			Log.info(String.format("%s Server ready @ %s\n",  SERVICE, serverURI));
@@ -45,5 +48,19 @@ public class UsersRestServer {
 			Log.severe(e.getMessage());
 		}
 	}
+
+	/**
+	 * Starts serving the users of a domain, with the discovery set with UsersResource.setDiscovery().
+	 */
+	public static HttpServer start(String domain, String serverURI) {
+		ResourceConfig config = new ResourceConfig();
+		config.register(new UsersResource(domain, WebServiceType.REST));
+		config.register(SmileProvider.class);
+
+		HttpServer server = JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config, false);
+		server.setExecutor(ServerExecutors.configured());
+		server.start();
+		return server;
+	}
 	
 }
\ No newline at end of file
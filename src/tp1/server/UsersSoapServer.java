@@ -5,9 +5,9 @@ import jakarta.xml.ws.Endpoint;
 import tp1.discovery.Discovery;
 import tp1.server.resources.UsersResource;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 import static tp1.clients.UsersApiClient.SERVICE;
@@ -31,14 +31,13 @@ public class UsersSoapServer {
             String ip = InetAddress.getLocalHost().getHostAddress();
             String serverURI = String.format("http://%s:%s/soap", ip, PORT);
 
-            HttpServer server = HttpServer.create(new InetSocketAddress(ip, PORT), 0);
+            // collects announcements before serving, so that the resource finds the servers it depends on
+            Discovery discovery = new Discovery(  domain, SERVICE, serverURI);
+            UsersResource.setDiscovery(discovery);
+            discovery.startCollectingAnnouncements();
 
-            server. setExecutor(Executors.newCachedThreadPool());
-            Endpoint soapUsersEndpoint = Endpoint.create(new UsersResource(domain, WebServiceType.SOAP));
-            soapUsersEndpoint.publish(server.createContext (SOAP_USERS_PATH));
-            server.start();
+            start(domain, new InetSocketAddress(ip, PORT));
 
-            Discovery discovery = new Discovery(  domain, SERVICE, serverURI);
             discovery.startSendingAnnouncements();
 
             Log.info(String.format("%s Server ready @ %s\n", SERVICE, serverURI));
@@ -46,4 +45,17 @@ public class UsersSoapServer {
             Log.severe(e.getMessage());
         }
     }
+
+    /**
+     * Starts serving the users of a domain, with the discovery set with UsersResource.setDiscovery().
+     */
+    public static HttpServer start(String domain, InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+
+        server.setExecutor(ServerExecutors.configured());
+        Endpoint soapEndpoint = Endpoint.create(new UsersResource(domain, WebServiceType.SOAP));
+        soapEndpoint.publish(server.createContext(SOAP_USERS_PATH));
+        server.start();
+        return server;
+    }
 }
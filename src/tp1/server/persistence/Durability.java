@@ -0,0 +1,30 @@
+package tp1.server.persistence;
+
+/**
+ * When the operations appended to a log are forced to disk, selected with -Dtp1.persistence.durability.
+ */
+public enum Durability {
+
+	/**
+	 * Operations are acknowledged once forced to disk. Operations appended while the log is being forced
+	 * are forced together, so that concurrent operations share the cost of each force (default).
+	 */
+	SYNC,
+
+	/**
+	 * Operations are acknowledged once written to the log file, which the writer does at once. The log is
+	 * forced every -Dtp1.persistence.flush.interval ms, so a crash of the machine loses at most the
+	 * operations of the last interval.
+	 */
+	BATCH,
+
+	/**
+	 * Operations are acknowledged once written to the log file, and the log is never forced. Only a crash
+	 * of the machine, not of the server, loses operations.
+	 */
+	OS;
+
+	public static Durability configured() {
+		return valueOf(System.getProperty("tp1.persistence.durability", "sync").toUpperCase());
+	}
+}
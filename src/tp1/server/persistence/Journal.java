@@ -0,0 +1,191 @@
+package tp1.server.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persists the state of a resource as periodic snapshots plus a write-ahead log of the operations applied
+ * since the last snapshot. Persistence is enabled by setting the directory of the journals with
+ * -Dtp1.persistence.dir.
+ *
+ * Operations must be appended in the order they are applied to the state, e.g. while holding the lock under
+ * which they are applied, and must be idempotent: snapshots are taken while operations proceed, so an
+ * operation whose effects are in a snapshot may also be replayed over it.
+ *
+ * A snapshot is taken every -Dtp1.persistence.snapshot.records operations. The log is rotated first, so
+ * that the snapshot holds every operation of the previous segments, which are then deleted.
+ *
+ * @param <S> type of the snapshots of the state
+ * @param <R> type of the records of the operations
+ */
+public class Journal<S, R> {
+	private static Logger Log = Logger.getLogger(Journal.class.getName());
+
+	private static final String DIR = System.getProperty("tp1.persistence.dir");
+
+	// number of operations logged between snapshots
+	private static final long SNAPSHOT_RECORDS = Long.getLong("tp1.persistence.snapshot.records", 100_000);
+
+	static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "journal-snapshotter");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final Path dir;
+	private final Class<R> recordType;
+	private final SnapshotFormat<S> snapshots;
+	private final Durability durability;
+
+	private final AtomicLong sinceSnapshot = new AtomicLong();
+	private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+	private WriteAheadLog log;
+	private Supplier<S> state;
+
+	/**
+	 * @return true if persistence is enabled
+	 */
+	public static boolean enabled() {
+		return DIR != null;
+	}
+
+	/**
+	 * @param name - the name of the journal, unique among the servers sharing the directory of the journals
+	 */
+	public Journal(String name, Class<R> recordType, SnapshotFormat<S> snapshots) {
+		this.dir = Paths.get(DIR, name);
+		this.recordType = recordType;
+		this.snapshots = snapshots;
+		this.durability = Durability.configured();
+	}
+
+	/**
+	 * Recovers the state from the last snapshot and the operations logged after it, and starts logging.
+	 * Must be called once, before any operation is appended.
+	 * @param restore - restores the state from a snapshot, if there is one
+	 * @param replay - applies a logged operation to the state
+	 * @param state - takes a snapshot of the state
+	 */
+	public void recover(Consumer<S> restore, Consumer<R> replay, Supplier<S> state) {
+		try {
+			Files.createDirectories(dir);
+			deleteUnfinishedSnapshots();
+
+			List<Long> taken = snapshots();
+			long from = 0;
+			if (!taken.isEmpty()) {
+				from = taken.get(taken.size() - 1);
+				restore.accept(snapshots.read(snapshotFile(from)));
+			}
+
+			long replayed = WriteAheadLog.replay(dir, from, record -> replay.accept(decode(record)));
+
+			List<Long> segments = WriteAheadLog.segments(dir);
+			long next = Math.max(from, segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1);
+
+			Log.info(String.format("Recovered %s from snapshot %d and %d logged operations\n", dir, from, replayed));
+
+			this.state = state;
+			this.log = new WriteAheadLog(dir, next, durability);
+			this.sinceSnapshot.set(replayed);
+
+			// flushes the operations not yet forced, in BATCH mode
+			Runtime.getRuntime().addShutdownHook(new Thread(log::close));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not recover " + dir, e);
+		}
+	}
+
+	/**
+	 * Appends an operation to the log.
+	 * @return a future completed once the operation is durable, as per the durability mode.
+	 */
+	public CompletableFuture<Void> append(R record) {
+		CompletableFuture<Void> committed = log.append(encode(record));
+		if (sinceSnapshot.incrementAndGet() >= SNAPSHOT_RECORDS && snapshotting.compareAndSet(false, true))
+			snapshotter.execute(this::snapshot);
+		return committed;
+	}
+
+	private void snapshot() {
+		try {
+			long segment = log.rotate();
+			sinceSnapshot.set(0);
+
+			Path tmp = dir.resolve(SNAPSHOT_PREFIX + segment + ".tmp");
+			snapshots.write(state.get(), tmp);
+			Files.move(tmp, snapshotFile(segment), StandardCopyOption.ATOMIC_MOVE);
+
+			log.deleteBefore(segment);
+			for (long s : snapshots())
+				if (s < segment)
+					Files.deleteIfExists(snapshotFile(s));
+		} catch (IOException | RuntimeException e) {
+			Log.warning("Could not snapshot " + dir + ": " + e.getMessage());
+		} finally {
+			snapshotting.set(false);
+		}
+	}
+
+	/**
+	 * @return the segments at which the existing snapshots were taken, in order.
+	 */
+	private List<Long> snapshots() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(f -> f.getFileName().toString())
+					.filter(f -> f.matches(SNAPSHOT_PREFIX + "\\d+"))
+					.map(f -> Long.parseLong(f.substring(SNAPSHOT_PREFIX.length())))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Deletes the snapshots that were being written when the server stopped.
+	 */
+	private void deleteUnfinishedSnapshots() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path f : (Iterable<Path>) files::iterator)
+				if (f.getFileName().toString().endsWith(".tmp"))
+					Files.delete(f);
+		}
+	}
+
+	private Path snapshotFile(long segment) {
+		return dir.resolve(SNAPSHOT_PREFIX + segment);
+	}
+
+	private byte[] encode(R record) {
+		try {
+			return JsonSnapshots.json.writeValueAsBytes(record);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private R decode(byte[] record) {
+		try {
+			return JsonSnapshots.json.readValue(record, recordType);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package tp1.server.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Snapshots written as JSON.
+ *
+ * @param <S> type of the state
+ */
+public class JsonSnapshots<S> implements SnapshotFormat<S> {
+
+	static final ObjectMapper json = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+	private final Class<S> type;
+
+	public JsonSnapshots(Class<S> type) {
+		this.type = type;
+	}
+
+	@Override
+	public void write(S state, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+			json.writeValue(out, state);
+			out.flush();
+			channel.force(true);
+		}
+	}
+
+	@Override
+	public S read(Path file) throws IOException {
+		return json.readValue(Files.newInputStream(file), type);
+	}
+}
@@ -0,0 +1,19 @@
+package tp1.server.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes and reads the snapshots of the state of a journal.
+ *
+ * @param <S> type of the state
+ */
+public interface SnapshotFormat<S> {
+
+	/**
+	 * Writes a snapshot, forcing it to disk before returning.
+	 */
+	void write(S state, Path file) throws IOException;
+
+	S read(Path file) throws IOException;
+}
@@ -0,0 +1,104 @@
+package tp1.server.persistence;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import tp1.api.CellUpdate;
+import tp1.api.Spreadsheet;
+
+/**
+ * Record of an operation on the spreadsheets of a server, in its journal.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SpreadsheetRecord {
+
+	public enum Type {
+		CREATE, DELETE, UPDATE, SHARE, UNSHARE
+	}
+
+	private Type type;
+	private String sheetId;
+	// the created sheet
+	private Spreadsheet sheet;
+	// the updated cells
+	private List<CellUpdate> updates;
+	// the user the sheet was shared or unshared with
+	private String userId;
+
+	public SpreadsheetRecord() {
+	}
+
+	private SpreadsheetRecord(Type type, String sheetId) {
+		this.type = type;
+		this.sheetId = sheetId;
+	}
+
+	public static SpreadsheetRecord created(Spreadsheet sheet) {
+		SpreadsheetRecord r = new SpreadsheetRecord(Type.CREATE, sheet.getSheetId());
+		r.sheet = sheet.withSparseCells();
+		return r;
+	}
+
+	public static SpreadsheetRecord deleted(String sheetId) {
+		return new SpreadsheetRecord(Type.DELETE, sheetId);
+	}
+
+	public static SpreadsheetRecord updated(String sheetId, List<CellUpdate> updates) {
+		SpreadsheetRecord r = new SpreadsheetRecord(Type.UPDATE, sheetId);
+		r.updates = updates;
+		return r;
+	}
+
+	public static SpreadsheetRecord shared(String sheetId, String userId) {
+		SpreadsheetRecord r = new SpreadsheetRecord(Type.SHARE, sheetId);
+		r.userId = userId;
+		return r;
+	}
+
+	public static SpreadsheetRecord unshared(String sheetId, String userId) {
+		SpreadsheetRecord r = new SpreadsheetRecord(Type.UNSHARE, sheetId);
+		r.userId = userId;
+		return r;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public String getSheetId() {
+		return sheetId;
+	}
+
+	public void setSheetId(String sheetId) {
+		this.sheetId = sheetId;
+	}
+
+	public Spreadsheet getSheet() {
+		return sheet;
+	}
+
+	public void setSheet(Spreadsheet sheet) {
+		this.sheet = sheet;
+	}
+
+	public List<CellUpdate> getUpdates() {
+		return updates;
+	}
+
+	public void setUpdates(List<CellUpdate> updates) {
+		this.updates = updates;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+}
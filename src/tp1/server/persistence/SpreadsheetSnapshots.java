@@ -0,0 +1,243 @@
+package tp1.server.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tp1.api.Spreadsheet;
+
+/**
+ * Binary snapshots of spreadsheets, read through a memory mapping of the file, so that each sheet is only
+ * decoded when it is first needed, and reading a snapshot does not scale with the number of cells.
+ *
+ * Layout, big-endian:
+ *
+ * <pre>
+ * header:   magic, version, number of sheets, number of strings, offset of the string offsets, offset of the index
+ * sheets:   per sheet - sheetId, owner, sheetURL, rows, columns, number of shares, shares,
+ *           number of cells, cells as (row &lt;&lt; 32 | column, raw value)
+ * strings:  per string - length, UTF-8 bytes
+ * string offsets: per string - offset of the string
+ * index:    per sheet - sheetId, offset of the sheet
+ * </pre>
+ *
+ * Strings are stored once and referenced by their number, or -1 for null; owners, shares and repeated raw
+ * values are thus shared by all sheets. Offsets are ints, which bounds snapshots to 2GB.
+ */
+public class SpreadsheetSnapshots implements SnapshotFormat<SpreadsheetSnapshots.Snapshot> {
+
+	private static final int MAGIC = 0x54503153;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * The sheets of a snapshot.
+	 */
+	public interface Snapshot {
+
+		Collection<String> sheetIds();
+
+		/**
+		 * @return the sheet, or null if it no longer exists.
+		 */
+		Spreadsheet sheet(String sheetId);
+	}
+
+	@Override
+	public void write(Snapshot snapshot, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			out.write(new byte[HEADER_SIZE]);
+
+			Strings strings = new Strings();
+			Map<Integer, Integer> index = new HashMap<>();
+			Set<String> written = new HashSet<>();
+			for (String sheetId : snapshot.sheetIds()) {
+				Spreadsheet sheet = snapshot.sheet(sheetId);
+				if (sheet == null || !written.add(sheetId))
+					continue;
+
+				index.put(strings.ref(sheetId), out.size());
+				writeSheet(sheet, strings, out);
+				checkSize(out);
+			}
+
+			List<Integer> offsets = new ArrayList<>(strings.list.size());
+			for (String s : strings.list) {
+				offsets.add(out.size());
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				checkSize(out);
+			}
+
+			int stringsOffset = out.size();
+			for (int offset : offsets)
+				out.writeInt(offset);
+
+			int indexOffset = out.size();
+			for (Map.Entry<Integer, Integer> e : index.entrySet()) {
+				out.writeInt(e.getKey());
+				out.writeInt(e.getValue());
+			}
+			checkSize(out);
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+					.putInt(MAGIC)
+					.putInt(VERSION)
+					.putInt(index.size())
+					.putInt(strings.list.size())
+					.putLong(stringsOffset)
+					.putLong(indexOffset)
+					.flip();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+
+			channel.force(true);
+		}
+	}
+
+	private static void writeSheet(Spreadsheet sheet, Strings strings, DataOutputStream out) throws IOException {
+		out.writeInt(strings.ref(sheet.getSheetId()));
+		out.writeInt(strings.ref(sheet.getOwner()));
+		out.writeInt(strings.ref(sheet.getSheetURL()));
+		out.writeInt(sheet.getRows());
+		out.writeInt(sheet.getColumns());
+
+		Set<String> sharedWith = sheet.getSharedWith() == null ? Collections.emptySet() : sheet.getSharedWith();
+		out.writeInt(sharedWith.size());
+		for (String userId : sharedWith)
+			out.writeInt(strings.ref(userId));
+
+		List<long[]> cells = new ArrayList<>();
+		sheet.forEachCell((row, col, rawValue) -> cells.add(new long[] { (long) row << 32 | col, strings.ref(rawValue) }));
+		out.writeInt(cells.size());
+		for (long[] cell : cells) {
+			out.writeLong(cell[0]);
+			out.writeInt((int) cell[1]);
+		}
+	}
+
+	private static void checkSize(DataOutputStream out) throws IOException {
+		// DataOutputStream.size() saturates at Integer.MAX_VALUE
+		if (out.size() == Integer.MAX_VALUE)
+			throw new IOException("Snapshot exceeds the 2GB of the binary format");
+	}
+
+	@Override
+	public Snapshot read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Snapshot exceeds the 2GB of the binary format: " + file);
+			return new MappedSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+		}
+	}
+
+	/**
+	 * Numbers the distinct strings of a snapshot being written.
+	 */
+	static class Strings {
+		final Map<String, Integer> refs = new HashMap<>();
+		final List<String> list = new ArrayList<>();
+
+		int ref(String s) {
+			if (s == null)
+				return -1;
+			Integer ref = refs.get(s);
+			if (ref == null) {
+				ref = list.size();
+				refs.put(s, ref);
+				list.add(s);
+			}
+			return ref;
+		}
+	}
+
+	/**
+	 * A snapshot read through a memory mapping. Only the index is decoded up front; sheets are decoded on
+	 * demand, with absolute reads, so that they may be decoded concurrently.
+	 */
+	static class MappedSnapshot implements Snapshot {
+		private final MappedByteBuffer buffer;
+		private final int stringsOffset;
+		private final Map<String, Integer> index;
+
+		MappedSnapshot(MappedByteBuffer buffer, Path file) throws IOException {
+			this.buffer = buffer;
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				throw new IOException("Not a binary spreadsheets snapshot: " + file);
+
+			int sheets = buffer.getInt(8);
+			this.stringsOffset = (int) buffer.getLong(16);
+			int indexOffset = (int) buffer.getLong(24);
+
+			this.index = new HashMap<>(2 * sheets);
+			for (int i = 0; i < sheets; i++) {
+				int entry = indexOffset + 8 * i;
+				index.put(string(buffer.getInt(entry)), buffer.getInt(entry + 4));
+			}
+		}
+
+		@Override
+		public Collection<String> sheetIds() {
+			return Collections.unmodifiableSet(index.keySet());
+		}
+
+		@Override
+		public Spreadsheet sheet(String sheetId) {
+			Integer offset = index.get(sheetId);
+			if (offset == null)
+				return null;
+
+			int at = offset;
+			Spreadsheet sheet = new Spreadsheet();
+			sheet.setSheetId(string(buffer.getInt(at)));
+			sheet.setOwner(string(buffer.getInt(at + 4)));
+			sheet.setSheetURL(string(buffer.getInt(at + 8)));
+			sheet.setRows(buffer.getInt(at + 12));
+			sheet.setColumns(buffer.getInt(at + 16));
+			at += 20;
+
+			int shares = buffer.getInt(at);
+			at += 4;
+			Set<String> sharedWith = new HashSet<>();
+			for (int i = 0; i < shares; i++, at += 4)
+				sharedWith.add(string(buffer.getInt(at)));
+			sheet.setSharedWith(sharedWith);
+
+			int cells = buffer.getInt(at);
+			at += 4;
+			for (int i = 0; i < cells; i++, at += 12) {
+				long key = buffer.getLong(at);
+				sheet.setCellRawValue((int) (key >>> 32), (int) key, string(buffer.getInt(at + 8)));
+			}
+			return sheet;
+		}
+
+		private String string(int ref) {
+			if (ref < 0)
+				return null;
+			int offset = buffer.getInt(stringsOffset + 4 * ref);
+			byte[] bytes = new byte[buffer.getInt(offset)];
+			buffer.get(offset + 4, bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
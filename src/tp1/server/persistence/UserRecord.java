@@ -0,0 +1,62 @@
+package tp1.server.persistence;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import tp1.api.User;
+
+/**
+ * Record of an operation on the users of a server, in its journal.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserRecord {
+
+	public enum Type {
+		PUT, DELETE
+	}
+
+	private Type type;
+	private String userId;
+	// the created or updated user
+	private User user;
+
+	public UserRecord() {
+	}
+
+	private UserRecord(Type type, String userId, User user) {
+		this.type = type;
+		this.userId = userId;
+		this.user = user;
+	}
+
+	public static UserRecord put(String userId, User user) {
+		return new UserRecord(Type.PUT, userId, user);
+	}
+
+	public static UserRecord deleted(String userId) {
+		return new UserRecord(Type.DELETE, userId, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public User getUser() {
+		return user;
+	}
+
+	public void setUser(User user) {
+		this.user = user;
+	}
+}
@@ -0,0 +1,287 @@
+package tp1.server.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of records, kept in numbered segment files (log-N) of a directory.
+ *
+ * Records are appended by any thread, but written by a single writer thread, which writes all the pending
+ * records at once, with a single gathering write, and then forces them to disk with a single force.
+ * Records appended while the log is being forced are written by the next round (group commit), so the
+ * number of forces does not grow with the number of concurrent appenders.
+ *
+ * Each record is framed by its length and checksum, so that a record torn by a crash ends the replay of
+ * its segment.
+ */
+class WriteAheadLog implements Closeable {
+	private static Logger Log = Logger.getLogger(WriteAheadLog.class.getName());
+
+	static final String SEGMENT_PREFIX = "log-";
+
+	// interval between forces in BATCH mode, in ms
+	private static final long FLUSH_INTERVAL = Long.getLong("tp1.persistence.flush.interval", 10);
+
+	// length and checksum of a record
+	private static final int HEADER_SIZE = 8;
+
+	private final Path dir;
+	private final Durability durability;
+	private final Thread writer;
+
+	// guarded by this
+	private List<Pending> pending = new ArrayList<>();
+	private long segment;
+	private boolean closed;
+
+	// used by the writer thread only
+	private FileChannel channel;
+	private long channelSegment = -1;
+
+	/**
+	 * @param dir - the directory of the segments
+	 * @param segment - the segment to append to, which must be after every existing segment
+	 */
+	WriteAheadLog(Path dir, long segment, Durability durability) {
+		this.dir = dir;
+		this.segment = segment;
+		this.durability = durability;
+		this.writer = new Thread(this::writeLoop, "wal-writer-" + dir.getFileName());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Appends a record.
+	 * @return a future completed once the record is committed: forced to disk in SYNC mode,
+	 * and otherwise written to the file, so that a crash of the server does not lose it.
+	 */
+	CompletableFuture<Void> append(byte[] record) {
+		CRC32C crc = new CRC32C();
+		crc.update(record);
+		ByteBuffer framed = ByteBuffer.allocate(HEADER_SIZE + record.length)
+				.putInt(record.length)
+				.putInt((int) crc.getValue())
+				.put(record)
+				.flip();
+
+		Pending p = new Pending(framed, new CompletableFuture<>());
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("Log is closed");
+			p.segment = segment;
+			pending.add(p);
+			if (pending.size() == 1)
+				notifyAll();
+		}
+		return p.committed;
+	}
+
+	/**
+	 * Starts a new segment: records appended from now on go to it.
+	 * @return the number of the new segment
+	 */
+	synchronized long rotate() {
+		return ++segment;
+	}
+
+	/**
+	 * Deletes the segments before a given one.
+	 */
+	void deleteBefore(long segment) throws IOException {
+		for (long s : segments(dir))
+			if (s < segment)
+				Files.deleteIfExists(segmentFile(dir, s));
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		boolean unforced = false;
+		long lastForce = System.currentTimeMillis();
+		for (;;) {
+			List<Pending> batch;
+			synchronized (this) {
+				try {
+					while (pending.isEmpty() && !closed) {
+						if (!unforced)
+							wait();
+						else {
+							long left = FLUSH_INTERVAL - (System.currentTimeMillis() - lastForce);
+							if (left <= 0)
+								break;
+							wait(left);
+						}
+					}
+				} catch (InterruptedException e) {
+					closed = true;
+				}
+				batch = pending;
+				pending = new ArrayList<>();
+			}
+
+			try {
+				write(batch);
+				if (durability == Durability.SYNC || (durability == Durability.BATCH &&
+						System.currentTimeMillis() - lastForce >= FLUSH_INTERVAL)) {
+					if (channel != null)
+						channel.force(false);
+					unforced = false;
+					lastForce = System.currentTimeMillis();
+				} else
+					unforced |= durability == Durability.BATCH && !batch.isEmpty();
+
+				for (Pending p : batch)
+					p.committed.complete(null);
+			} catch (IOException e) {
+				Log.severe("Could not write to " + dir + ": " + e.getMessage());
+				for (Pending p : batch)
+					p.committed.completeExceptionally(e);
+			}
+
+			synchronized (this) {
+				if (closed && pending.isEmpty()) {
+					closeChannel();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a batch of records, with a gathering write per run of records of the same segment.
+	 */
+	private void write(List<Pending> batch) throws IOException {
+		int start = 0;
+		while (start < batch.size()) {
+			long s = batch.get(start).segment;
+			int end = start;
+			while (end < batch.size() && batch.get(end).segment == s)
+				end++;
+
+			if (s != channelSegment)
+				open(s);
+
+			ByteBuffer[] buffers = new ByteBuffer[end - start];
+			long remaining = 0;
+			for (int i = start; i < end; i++) {
+				buffers[i - start] = batch.get(i).record;
+				remaining += batch.get(i).record.remaining();
+			}
+			while (remaining > 0)
+				remaining -= channel.write(buffers);
+
+			start = end;
+		}
+	}
+
+	private void open(long s) throws IOException {
+		if (channel != null) {
+			if (durability != Durability.OS)
+				channel.force(false);
+			channel.close();
+		}
+		channel = FileChannel.open(segmentFile(dir, s), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		channelSegment = s;
+	}
+
+	private void closeChannel() {
+		if (channel == null)
+			return;
+		try {
+			if (durability != Durability.OS)
+				channel.force(false);
+			channel.close();
+		} catch (IOException e) {
+			Log.warning("Could not close " + dir + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replays the records of the segments from a given one on, in order.
+	 * @return the number of records replayed
+	 */
+	static long replay(Path dir, long from, Consumer<byte[]> consumer) throws IOException {
+		long replayed = 0;
+		for (long s : segments(dir)) {
+			if (s < from)
+				continue;
+
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentFile(dir, s)));
+			while (buffer.remaining() >= HEADER_SIZE) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					Log.warning("Torn record at the end of " + segmentFile(dir, s));
+					break;
+				}
+
+				byte[] record = new byte[length];
+				buffer.get(record);
+				CRC32C crc = new CRC32C();
+				crc.update(record);
+				if ((int) crc.getValue() != checksum) {
+					Log.warning("Corrupt record at the end of " + segmentFile(dir, s));
+					break;
+				}
+
+				consumer.accept(record);
+				replayed++;
+			}
+		}
+		return replayed;
+	}
+
+	/**
+	 * @return the numbers of the existing segments, in order.
+	 */
+	static List<Long> segments(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(f -> f.getFileName().toString())
+					.filter(f -> f.matches(SEGMENT_PREFIX + "\\d+"))
+					.map(f -> Long.parseLong(f.substring(SEGMENT_PREFIX.length())))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	static Path segmentFile(Path dir, long segment) {
+		return dir.resolve(SEGMENT_PREFIX + segment);
+	}
+
+	static class Pending {
+		final ByteBuffer record;
+		final CompletableFuture<Void> committed;
+		long segment;
+
+		Pending(ByteBuffer record, CompletableFuture<Void> committed) {
+			this.record = record;
+			this.committed = committed;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package tp1.server.resources;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tp1.api.CellUpdate;
+
+/**
+ * The recent updates of the cells of a sheet, in a bounded ring of (version, cell, value) entries, so
+ * that clients holding a version of the sheet fetch only the cells updated since. Once the ring wraps, the
+ * oldest updates are dropped, and clients holding versions older than them must fetch the whole sheet.
+ *
+ * The ring grows as needed, up to CAPACITY entries. Not thread-safe: guarded by the lock of the sheet.
+ */
+class ChangeLog {
+
+	// maximum number of cell updates kept per sheet
+	static final int CAPACITY = Integer.getInteger("tp1.changes.capacity", 1024);
+
+	private static final int INITIAL_CAPACITY = Math.min(16, CAPACITY);
+
+	private long[] versions = new long[INITIAL_CAPACITY];
+	private String[] cells = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+
+	// index of the oldest entry, and number of entries
+	private int head, size;
+
+	// the updates of every version after this one are in the ring
+	private long complete;
+
+	ChangeLog() {
+		this(0);
+	}
+
+	/**
+	 * @param complete - the version after which all updates are to be appended
+	 */
+	ChangeLog(long complete) {
+		this.complete = complete;
+	}
+
+	/**
+	 * Records the update of a cell, either of its raw value or of its computed value. Versions must not decrease.
+	 */
+	void append(long version, String cell, String value) {
+		if (size == versions.length && size < CAPACITY)
+			grow();
+
+		int at = (head + size) % versions.length;
+		if (size == versions.length) {
+			// drops the oldest update, so its version is no longer complete
+			complete = versions[head];
+			head = (head + 1) % versions.length;
+		} else
+			size++;
+
+		versions[at] = version;
+		cells[at] = cell;
+		values[at] = value;
+	}
+
+	/**
+	 * The updates of the versions after a given one, keeping only the last update of each cell.
+	 * @return the updates, in the order they were made, or null if some of them were dropped.
+	 */
+	List<CellUpdate> since(long version) {
+		if (version < complete)
+			return null;
+
+		// versions increase along the ring, so the updates since the version are the newest ones
+		int newer = 0;
+		while (newer < size && versions[(head + size - 1 - newer) % versions.length] > version)
+			newer++;
+
+		Map<String, String> latest = new LinkedHashMap<>();
+		for (int i = size - newer; i < size; i++) {
+			int at = (head + i) % versions.length;
+			latest.remove(cells[at]);
+			latest.put(cells[at], values[at]);
+		}
+
+		List<CellUpdate> updates = new ArrayList<>(latest.size());
+		latest.forEach((cell, value) -> updates.add(new CellUpdate(cell, value)));
+		return updates;
+	}
+
+	private void grow() {
+		int capacity = (int) Math.min((long) CAPACITY, 2L * versions.length);
+		versions = unwrap(versions, capacity);
+		cells = unwrap(cells, capacity);
+		values = unwrap(values, capacity);
+		head = 0;
+	}
+
+	// copies the entries to the start of a new array, oldest first
+	private long[] unwrap(long[] ring, int capacity) {
+		long[] copy = new long[capacity];
+		int first = Math.min(size, ring.length - head);
+		System.arraycopy(ring, head, copy, 0, first);
+		System.arraycopy(ring, 0, copy, first, size - first);
+		return copy;
+	}
+
+	private String[] unwrap(String[] ring, int capacity) {
+		String[] copy = new String[capacity];
+		int first = Math.min(size, ring.length - head);
+		System.arraycopy(ring, head, copy, 0, first);
+		System.arraycopy(ring, 0, copy, first, size - first);
+		return copy;
+	}
+}
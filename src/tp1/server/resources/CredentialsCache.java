@@ -0,0 +1,103 @@
+package tp1.server.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tp1.util.LRUCache;
+
+/**
+ * Cache of recently verified credentials, so that repeated requests of the same user
+ * do not verify the same password with the users service every time.
+ *
+ * Only successful verifications are cached, as a hash of the password, for a short TTL. The users service
+ * invalidates the entry of a user when the user is updated or deleted; the TTL bounds how long a lost
+ * invalidation goes unnoticed.
+ *
+ * Invalidations are only accepted from servers that share the secret of the domain (-Dtp1.server.secret).
+ * Without it, none are sent nor accepted, and cached credentials only expire with the TTL.
+ */
+class CredentialsCache {
+
+	// time during which a verified password is accepted without contacting the users service
+	static final long TTL = Long.getLong("tp1.cache.auth.ttl", 10_000);
+
+	// maximum number of users whose credentials are cached
+	static final long MAX_ENTRIES = Long.getLong("tp1.cache.auth.entries", 10_000);
+
+	// shared by the servers of the domain, to authenticate the invalidations
+	static final String SECRET = System.getProperty("tp1.server.secret");
+
+	private final LRUCache<String, Entry> cache = new LRUCache<>(MAX_ENTRIES, e -> 1L);
+
+	// number of invalidations so far, so that verifications overlapping an invalidation are not cached
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Tests if the password of a user was verified less than TTL ago.
+	 */
+	boolean isVerified(String userId, String password) {
+		Entry cached = cache.get(userId);
+		if (cached == null)
+			return false;
+
+		if (System.currentTimeMillis() - cached.verified >= TTL) {
+			cache.remove(userId);
+			return false;
+		}
+		return MessageDigest.isEqual(cached.hash, hash(password));
+	}
+
+	/**
+	 * Marks the start of a verification with the users service.
+	 * @return the stamp to pass to verified()
+	 */
+	long stamp() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Caches a successful verification, unless some user was invalidated since it started.
+	 */
+	void verified(String userId, String password, long stamp) {
+		Entry entry = new Entry(hash(password), System.currentTimeMillis());
+		synchronized (this) {
+			if (invalidations.get() == stamp)
+				cache.put(userId, entry);
+		}
+	}
+
+	/**
+	 * Tests if a secret is the one shared by the servers of the domain, if there is one.
+	 */
+	static boolean isSecret(String secret) {
+		return SECRET != null && MessageDigest.isEqual(hash(SECRET), hash(Objects.requireNonNullElse(secret, "")));
+	}
+
+	void invalidate(String userId) {
+		synchronized (this) {
+			invalidations.incrementAndGet();
+			cache.remove(userId);
+		}
+	}
+
+	private static byte[] hash(String password) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static class Entry {
+		final byte[] hash;
+		final long verified;
+
+		Entry(byte[] hash, long verified) {
+			this.hash = hash;
+			this.verified = verified;
+		}
+	}
+}
@@ -2,27 +2,56 @@ package tp1.server.resources;
 
 import jakarta.inject.Singleton;
 import jakarta.jws.WebService;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.Variant;
 import org.apache.commons.lang3.tuple.Pair;
+import tp1.api.CellUpdate;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetChanges;
+import tp1.api.ValuesChanges;
 import tp1.api.User;
+import tp1.api.engine.AbstractSpreadsheet;
 import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.api.service.soap.SoapSpreadsheets;
 import tp1.clients.*;
 import tp1.discovery.Discovery;
+import tp1.impl.engine.EngineType;
 import tp1.impl.engine.SpreadsheetEngineImpl;
+import tp1.server.ServerExecutors;
 import tp1.server.WebServiceType;
+import tp1.server.persistence.Journal;
+import tp1.server.persistence.SpreadsheetRecord;
+import tp1.server.persistence.SpreadsheetSnapshots;
 import tp1.util.Cell;
 import tp1.util.CellRange;
 import tp1.util.InvalidCellIdException;
+import tp1.util.LRUCache;
+import tp1.util.SmileProvider;
+import tp1.util.ValuesStreams;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import static tp1.util.ExceptionMapper.throwWebAppException;
@@ -39,76 +68,222 @@ public class SpreadsheetResource implements RestSpreadsheets, SoapSpreadsheets {
 
 	private final Map<String, Spreadsheet> spreadsheets;
 
+	private final Map<String, Long> versions;
+
+	// the recent cell updates of the sheets updated since the server started, guarded by the locks of the sheets
+	private final Map<String, ChangeLog> changes;
+
+	// the computed values of the sheets watched by clients
+	private final Map<String, ValuesFeed> feeds;
+
+	// number of clients waiting for values to change
+	private final AtomicInteger watching = new AtomicInteger();
+
+	// striped locks, guarding the contents of the sheets whose ids hash to each stripe
+	private final ReadWriteLock[] locks;
+
+	private final LRUCache<String, CachedValues> cachedValues;
+
+	// the keys of the cached ranges of each sheet, so that they are discarded along with the sheet's values
+	private final Map<String, Set<String>> cachedRanges;
+
 	private final SpreadsheetEngine engine;
 
+	private final CredentialsCache credentials;
+
+	// persists the sheets, if persistence is enabled
+	private final Journal<SpreadsheetSnapshots.Snapshot, SpreadsheetRecord> journal;
+
+	// the snapshot the sheets were restored from, and the sheets of it not yet loaded
+	private SpreadsheetSnapshots.Snapshot restored;
+	private final Set<String> unloaded = ConcurrentHashMap.newKeySet();
+
 	private final WebServiceType type;
 
 	public static Discovery discovery;
 
 	private static Logger Log = Logger.getLogger(SpreadsheetResource.class.getName());
 
+	private static final int LOCK_STRIPES = Integer.getInteger("tp1.lock.stripes", 256);
+
+	// maximum number of computed cells kept in cache
+	private static final long VALUES_CACHE_CELLS = Long.getLong("tp1.cache.values.cells", 4_000_000L);
+
+	// distinguishes the versions of this server instance in ETags, as versions restart with the server
+	private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+	// maximum time a client waits for the values of a sheet to change
+	private static final long WATCH_TIMEOUT = Long.getLong("tp1.watch.timeout", 30_000);
+
+	// maximum number of clients waiting for values to change at a time, as each holds a request thread;
+	// bounded by the requests the executor of the server can leave blocked, so none in direct mode
+	private static final int MAX_WATCHING = Math.min(Integer.getInteger("tp1.watch.max", 512), ServerExecutors.blockingLimit());
+
+	// time after which the computed values of a sheet no longer watched are discarded
+	private static final long WATCH_IDLE = Long.getLong("tp1.watch.idle", 60_000);
+
+	// time to wait for a server of a service to be announced, when none is known yet
+	private static final long DISCOVERY_WAIT = Long.getLong("tp1.discovery.wait", 5000);
+
 	public SpreadsheetResource(String domainId, WebServiceType type) {
 		this.domainId = domainId;
 		this.type = type;
-		this.spreadsheets = new HashMap<>();
-		this.engine = SpreadsheetEngineImpl.getInstance();
+		this.spreadsheets = new ConcurrentHashMap<>();
+		this.versions = new ConcurrentHashMap<>();
+		this.changes = new ConcurrentHashMap<>();
+		this.feeds = new ConcurrentHashMap<>();
+		this.locks = new ReadWriteLock[LOCK_STRIPES];
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new ReentrantReadWriteLock();
+		this.cachedValues = new LRUCache<>(VALUES_CACHE_CELLS, CachedValues::cells);
+		this.cachedRanges = new ConcurrentHashMap<>();
+		this.engine = EngineType.configured();
+		this.credentials = new CredentialsCache();
+
+		if (Journal.enabled()) {
+			this.journal = new Journal<>(domainId + "-spreadsheets", SpreadsheetRecord.class, new SpreadsheetSnapshots());
+			this.journal.recover(this::restore, this::replay, this::snapshot);
+		} else
+			this.journal = null;
+
+		// creates the users client as soon as a users server is announced
+		if (discovery != null)
+			discovery.subscribe(domainId, UsersApiClient.SERVICE, uri -> {
+				if (cachedUserClient == null || !discovery.isAlive(cachedUserClient.uri))
+					usersClientOf(uri);
+			});
 	}
 
 	public static void setDiscovery(Discovery discovery) {
 		SpreadsheetResource.discovery = discovery;
 	}
 
-	private static Map<String, SpreadsheetApiClient> cachedSpreadSheetClients;
-	public static SpreadsheetApiClient getRemoteSpreadsheetClient(String domainId) {
-		if (cachedSpreadSheetClients == null)
-			cachedSpreadSheetClients = new ConcurrentHashMap<>();
+	private static final Map<String, Endpoint<SpreadsheetApiClient>> cachedSpreadSheetClients = new ConcurrentHashMap<>();
 
-		if(cachedSpreadSheetClients.containsKey(domainId))
-			return cachedSpreadSheetClients.get(domainId);
+	/**
+	 * The client of the spreadsheets service of a domain. The client of a server is kept while the server
+	 * is announced and its calls succeed; otherwise a new server is selected, waiting up to DISCOVERY_WAIT
+	 * for one to be announced.
+	 * @return the client, or null if no server of the domain is known.
+	 */
+	public static SpreadsheetApiClient getRemoteSpreadsheetClient(String domainId) {
+		Endpoint<SpreadsheetApiClient> cached = cachedSpreadSheetClients.get(domainId);
+		if (cached != null && discovery.isAlive(cached.uri))
+			return cached.client;
 
-		String serverUrl = discovery.knownUrisOf(domainId, SpreadsheetApiClient.SERVICE).stream()
-				.findAny()
-				.map(URI::toString)
-				.orElse(null);
+		URI serverUri = discovery.awaitUriOf(domainId, SpreadsheetApiClient.SERVICE, DISCOVERY_WAIT);
 
 		SpreadsheetApiClient client = null;
-		if(serverUrl != null) {
+		if(serverUri != null) {
 			try {
+				String serverUrl = serverUri.toString();
 				if (serverUrl.contains("/rest"))
 					client = new SpreadsheetRestClient(serverUrl);
 				else
 					client = new SpreadsheetSoapClient(serverUrl);
 
-				cachedSpreadSheetClients.put(domainId,client);
+				client = new CachingSpreadsheetClient(domainId, client);
+
+				cachedSpreadSheetClients.put(domainId, new Endpoint<>(serverUri, client));
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
+		} else if (cached != null) {
+			cachedSpreadSheetClients.remove(domainId, cached);
 		}
 
 		return client;
 	}
 
+	/**
+	 * The client of the spreadsheets service of a domain, without blocking while no server is known.
+	 * @param executor - creates the client, once a server is announced
+	 * @return a future completed with the client, or with null if no server of the domain is announced.
+	 */
+	public static CompletableFuture<SpreadsheetApiClient> getRemoteSpreadsheetClientAsync(String domainId, Executor executor) {
+		Endpoint<SpreadsheetApiClient> cached = cachedSpreadSheetClients.get(domainId);
+		if (cached != null && discovery.isAlive(cached.uri))
+			return CompletableFuture.completedFuture(cached.client);
+
+		return discovery.firstUriOf(domainId, SpreadsheetApiClient.SERVICE)
+				.handleAsync((uri, error) -> error == null ? getRemoteSpreadsheetClient(domainId) : null, executor);
+	}
 
-	private UsersApiClient cachedUserClient;
-	private UsersApiClient getLocalUsersClient() {
-		if(cachedUserClient ==null) {
-			String serverUrl = discovery.knownUrisOf(domainId, UsersApiClient.SERVICE).stream()
-				.findAny()
-				.map(URI::toString)
-				.orElse(null);
+	/**
+	 * Reports the outcome of a call made with the client of the spreadsheets service of a domain.
+	 * Calls that got no answer evict the client, so that the next call selects a server again.
+	 * @param start - the System.nanoTime() at which the call started
+	 */
+	public static void remoteCallCompleted(String domainId, long start, Throwable error) {
+		Endpoint<SpreadsheetApiClient> cached = cachedSpreadSheetClients.get(domainId);
+		if (cached == null)
+			return;
+
+		if (answered(error))
+			discovery.reportLatency(cached.uri, (System.nanoTime() - start) / 1_000_000);
+		else {
+			discovery.reportFailure(cached.uri);
+			cachedSpreadSheetClients.remove(domainId, cached);
+		}
+	}
 
-			if(serverUrl != null) {
-				try {
-					if (serverUrl.contains("/rest"))
-						cachedUserClient = new UsersRestClient(serverUrl);
-					else
-						cachedUserClient = new UsersSoapClient(serverUrl);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
+	/**
+	 * Tests if a call got an answer from the server, even if an error status.
+	 */
+	private static boolean answered(Throwable error) {
+		Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+		return cause == null || cause instanceof WebApplicationException;
+	}
+
+
+	private volatile Endpoint<UsersApiClient> cachedUserClient;
+
+	/**
+	 * The client of the users service of the domain, without blocking while no server is known.
+	 * The client is created on the pool of the blocking calls of the clients.
+	 */
+	private CompletableFuture<Endpoint<UsersApiClient>> getLocalUsersClientAsync() {
+		Endpoint<UsersApiClient> cached = cachedUserClient;
+		if (cached != null && discovery.isAlive(cached.uri))
+			return CompletableFuture.completedFuture(cached);
+
+		return discovery.firstUriOf(domainId, UsersApiClient.SERVICE)
+				.handleAsync((uri, error) -> error == null ? usersClientOf(uri) : null, AsyncClients.blocking());
+	}
+
+	private Endpoint<UsersApiClient> usersClientOf(URI serverUri) {
+		if(serverUri == null)
+			return null;
+
+		Endpoint<UsersApiClient> cached = cachedUserClient;
+		if (cached != null && cached.uri.equals(serverUri))
+			return cached;
+
+		try {
+			String serverUrl = serverUri.toString();
+			if (serverUrl.contains("/rest"))
+				cached = new Endpoint<>(serverUri, new UsersRestClient(serverUrl));
+			else
+				cached = new Endpoint<>(serverUri, new UsersSoapClient(serverUrl));
+			cachedUserClient = cached;
+			return cached;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * A client of a discovered server.
+	 */
+	static class Endpoint<T> {
+		final URI uri;
+		final T client;
+
+		Endpoint(URI uri, T client) {
+			this.uri = uri;
+			this.client = client;
 		}
-		return cachedUserClient;
 	}
 
 	@Override
@@ -118,29 +293,44 @@ public class SpreadsheetResource implements RestSpreadsheets, SoapSpreadsheets {
 			throwWebAppException(Log, "Sheet or password null.", type, Response.Status.BAD_REQUEST);
 		}
 
-		synchronized(this) {
-
-			//TODO: Evitar ciclos de referencias
+		// the cells are only checked once deserialized, as they may be set before the size of the sheet
+		if (sheet.getRows() < 0 || sheet.getColumns() < 0 || !cellsWithin(sheet)) {
+			throwWebAppException(Log, "Cells outside the spreadsheet.", type, Response.Status.BAD_REQUEST);
+		}
 
-			try {
-				boolean valid = getLocalUsersClient().verifyUser(sheet.getOwner(), password);
-				if(!valid)
-					throwWebAppException(Log, "Invalid password.", type, Response.Status.BAD_REQUEST);
-			} catch (Exception e) {
-				throwWebAppException(Log, "User not found.", type, Response.Status.BAD_REQUEST);
-			}
+		//TODO: Evitar ciclos de referencias
 
-			String sheetId;
-			do {
-				sheetId = UUID.randomUUID().toString();
-			} while (spreadsheets.containsKey(sheetId));
+		verifyUser(sheet.getOwner(), password, Response.Status.BAD_REQUEST, Response.Status.BAD_REQUEST);
 
-			Spreadsheet spreadsheet = new Spreadsheet(sheet,sheetId,domainId);
+		withConcurrentShares(sheet);
 
-			spreadsheets.put(sheetId, spreadsheet);
+		Spreadsheet spreadsheet;
+		CompletableFuture<Void> commit;
+		for (;;) {
+			spreadsheet = new Spreadsheet(sheet, UUID.randomUUID().toString(), domainId);
 
-			return sheetId;
+			// the creation is logged before any update of the new sheet
+			Lock lock = lockOf(spreadsheet.getSheetId()).writeLock();
+			lock.lock();
+			try {
+				if (!unloaded.contains(spreadsheet.getSheetId()) && 
+						spreadsheets.putIfAbsent(spreadsheet.getSheetId(), spreadsheet) == null) {
+					commit = log(SpreadsheetRecord.created(spreadsheet));
+					break;
+				}
+			} finally {
+				lock.unlock();
+			}
 		}
+		committed(commit);
+
+		return spreadsheet.getSheetId();
+	}
+
+	private static boolean cellsWithin(Spreadsheet sheet) {
+		boolean[] within = { true };
+		sheet.forEachCell((row, col, rawValue) -> within[0] &= row >= 0 && row < sheet.getRows() && col >= 0 && col < sheet.getColumns());
+		return within[0];
 	}
 
 	@Override
@@ -150,39 +340,113 @@ public class SpreadsheetResource implements RestSpreadsheets, SoapSpreadsheets {
 			throwWebAppException(Log, "SheetId or password null.", type, Response.Status.BAD_REQUEST);
 		}
 
-		synchronized (this) {
+		Spreadsheet sheet = checkSheet(sheetId);
 
-			Spreadsheet sheet = spreadsheets.get(sheetId);
+		verifyUser(sheet.getOwner(), password, Response.Status.FORBIDDEN, Response.Status.BAD_REQUEST);
 
-			if( sheet == null ) {
+		CompletableFuture<Void> commit;
+		Lock lock = lockOf(sheetId).writeLock();
+		lock.lock();
+		try {
+			unloaded.remove(sheetId);
+			if( !spreadsheets.remove(sheetId, sheet) ) {
 				throwWebAppException(Log, "Sheet doesnt exist.", type, Response.Status.NOT_FOUND);
 			}
 
-			try {
-				boolean valid = getLocalUsersClient().verifyUser(sheet.getOwner(), password);
-				if(!valid)
-					throwWebAppException(Log, "Invalid password.", type, Response.Status.FORBIDDEN);
-			} catch (Exception e) {
-				throwWebAppException(Log, "User not found.", type, Response.Status.BAD_REQUEST);
-			}
-
-			spreadsheets.remove(sheetId);
+			engine.discard(sheetId);
+			bumpVersion(sheetId);
+			versions.remove(sheetId);
+			changes.remove(sheetId);
+			ValuesFeed feed = feeds.remove(sheetId);
+			if (feed != null)
+				feed.updated();
+			commit = log(SpreadsheetRecord.deleted(sheetId));
+		} finally {
+			lock.unlock();
 		}
+		committed(commit);
 	}
 
 	@Override
 	public Spreadsheet getSpreadsheet(String sheetId, String userId, String password) {
+		return getSpreadsheet(sheetId, userId, password, false);
+	}
 
-		if( sheetId == null || userId == null || password == null ) {
-			throwWebAppException(Log, "SheetId or userId or password null.", type, Response.Status.BAD_REQUEST);
+	@Override
+	public Spreadsheet getSpreadsheet(String sheetId, String userId, String password, boolean sparse) {
+
+		Spreadsheet sheet = checkReadAccess(sheetId, userId, password);
+
+		// the sheet is serialized after the lock is released, so a copy is returned
+		Lock lock = lockOf(sheetId).readLock();
+		lock.lock();
+		try {
+			Spreadsheet copy = new Spreadsheet(sheet);
+			return sparse ? copy.withSparseCells() : copy;
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		Spreadsheet sheet = spreadsheets.get(sheetId);
+	/**
+	 * Versions are tagged with the EPOCH of the server, so that versions of a previous instance are not
+	 * mistaken for current ones, and answered with the whole sheet.
+	 */
+	@Override
+	public SpreadsheetChanges getSpreadsheetChanges(String sheetId, String userId, String password, String version) {
 
-		if( sheet == null ) {
-			throwWebAppException(Log, "Sheet doesnt exist.", type, Response.Status.NOT_FOUND);
+		Spreadsheet sheet = checkReadAccess(sheetId, userId, password);
+
+		Lock lock = lockOf(sheetId).readLock();
+		lock.lock();
+		try {
+			long current = versions.getOrDefault(sheetId, 0L);
+			String tag = EPOCH + "-" + current;
+
+			long since = versionOf(version);
+			if (since >= 0 && since <= current) {
+				// sheets without a change log had no cell updated since the server started
+				ChangeLog log = changes.get(sheetId);
+				List<CellUpdate> updates = log == null ? List.of() : log.since(since);
+				if (updates != null)
+					return new SpreadsheetChanges(tag, updates, null);
+			}
+			return new SpreadsheetChanges(tag, null, new Spreadsheet(sheet).withSparseCells());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the version of a sheet tagged by getSpreadsheetChanges, or -1 if not a version of this server.
+	 */
+	private static long versionOf(String version) {
+		if (version == null || !version.startsWith(EPOCH + "-"))
+			return -1;
+		try {
+			return Long.parseLong(version.substring(EPOCH.length() + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private Spreadsheet checkReadAccess(String sheetId, String userId, String password) {
+
+		Spreadsheet sheet = checkReadPermission(sheetId, userId, password);
+
+		verifyUser(sheet.getOwner(), password, Response.Status.FORBIDDEN, Response.Status.NOT_FOUND);
+
+		return sheet;
+	}
+
+	private Spreadsheet checkReadPermission(String sheetId, String userId, String password) {
+
+		if( sheetId == null || userId == null || password == null ) {
+			throwWebAppException(Log, "SheetId or userId or password null.", type, Response.Status.BAD_REQUEST);
 		}
 
+		Spreadsheet sheet = checkSheet(sheetId);
+
 		if (!sheet.getSharedWith().contains(userId)) {
 			throwWebAppException(Log, "User " + userId + " does not have permissions to read this spreadsheet.", type, Response.Status.BAD_REQUEST);
 		}
@@ -191,56 +455,295 @@ public class SpreadsheetResource implements RestSpreadsheets, SoapSpreadsheets {
 			throwWebAppException(Log, "User " + userId + " does not have permissions to read this spreadsheet.", type, Response.Status.BAD_REQUEST);
 		}
 
-		try {
-			boolean valid = getLocalUsersClient().verifyUser(sheet.getOwner(), password);
-			if(!valid)
-				throwWebAppException(Log, "Invalid password.", type, Response.Status.FORBIDDEN);
-		} catch (Exception e) {
-			throwWebAppException(Log, "User not found.", type, Response.Status.NOT_FOUND);
-		}
-
 		return sheet;
 	}
 
 	@Override
 	public String[][] getReferencedSpreadsheetValues(String sheetId, String userId, String range) {
+
+		Spreadsheet spreadsheet = checkReferencedSheet(sheetId, userId, range);
+
+		return computeRangeValues(spreadsheet, await(prefetch(spreadsheet)), range).values;
+	}
+
+	@Override
+	public Response getReferencedSpreadsheetValues(String sheetId, String userId, String range, String ifNoneMatch) {
+
+		Spreadsheet spreadsheet = checkReferencedSheet(sheetId, userId, range);
+
+		CachedValues computed = computeRangeValues(spreadsheet, await(prefetch(spreadsheet)), range);
+
+		String[][] result = computed.values;
+
+		// values of sheets with importranges also depend on remote sheets, so they are not tagged
+		if (!computed.cacheable)
+			return Response.ok(result).build();
+
+		EntityTag tag = new EntityTag(EPOCH + "-" + computed.version);
+		if (("\"" + tag.getValue() + "\"").equals(ifNoneMatch))
+			return Response.notModified(tag).build();
+
+		return Response.ok(result).tag(tag).build();
+	}
+
+	private Spreadsheet checkReferencedSheet(String sheetId, String userId, String range) {
 		if( sheetId == null || userId == null || range == null) {
 			throwWebAppException(Log, "SheetId or userId or range null.", type, Response.Status.BAD_REQUEST);
 		}
 
-		Spreadsheet spreadsheet = spreadsheets.get(sheetId);
-
-		if( spreadsheet == null ) {
-			throwWebAppException(Log, "Sheet doesnt exist.", type, Response.Status.NOT_FOUND);
-		}
+		Spreadsheet spreadsheet = checkSheet(sheetId);
 
 		if (!spreadsheet.getSharedWith().contains(userId)) {
 			throwWebAppException(Log, "User " + userId + " does not have permissions to read this spreadsheet.", type, Response.Status.BAD_REQUEST);
 		}
 
-		String[][] result = null;
+		return spreadsheet;
+	}
+
+	@Override
+	public String[][] getSpreadsheetValues(String sheetId, String userId, String password) {
+
+		Spreadsheet spreadsheet = checkReadPermission(sheetId, userId, password);
+
+		// the password is verified while the imported ranges are fetched
+		CompletableFuture<Void> verified = verifyUserAsync(spreadsheet.getOwner(), password, Response.Status.FORBIDDEN, Response.Status.NOT_FOUND);
+		CompletableFuture<AbstractSpreadsheet> resolved = prefetch(spreadsheet);
+
+		await(verified);
+		return computeValues(spreadsheet, await(resolved)).values;
+	}
+
+	// encodings of the streamed values; JSON unless the client prefers Smile
+	private static final List<Variant> VALUES_VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE,
+			SmileProvider.APPLICATION_SMILE_TYPE).build();
+
+	/**
+	 * The values are computed, or taken from the cache, as a whole before they are written, as the engines
+	 * compute whole matrices; writing them a row at a time copies no less than the JSON provider, which also
+	 * writes to the entity stream. Only the client benefits, reading the rows as they arrive.
+	 */
+	@Override
+	public Response streamSpreadsheetValues(String sheetId, String userId, String password, Request request) {
+
+		String[][] values = getSpreadsheetValues(sheetId, userId, password);
+
+		Variant variant = request.selectVariant(VALUES_VARIANTS);
+		MediaType type = variant != null ? variant.getMediaType() : MediaType.APPLICATION_JSON_TYPE;
+
+		// written a row at a time, in the negotiated encoding, by the same code the clients read it with
+		StreamingOutput rows = out -> ValuesStreams.write(values, out, type);
+		return Response.ok(rows, type).build();
+	}
+
+	/**
+	 * Waits, up to the timeout, for the values to change from the version held by the client. The values are
+	 * computed once per version for all the clients waiting, and only the values that changed are returned.
+	 * Values imported from other sheets are only refreshed when the sheet itself is updated.
+	 */
+	@Override
+	public ValuesChanges watchSpreadsheetValues(String sheetId, String userId, String password, String range,
+			String version, Long timeout) {
+
+		Spreadsheet spreadsheet = checkReadAccess(sheetId, userId, password);
+
+		CellRange cells = null;
+		if (range != null) {
+			cells = new CellRange(range);
+			if (cells.topRow < 0 || cells.topRow > cells.botRow || cells.topCol > cells.botCol
+					|| cells.botRow >= spreadsheet.getRows() || cells.botCol >= spreadsheet.getColumns())
+				throwWebAppException(Log, "Invalid range.", type, Response.Status.BAD_REQUEST);
+		}
+
+		if (MAX_WATCHING == 0) {
+			throwWebAppException(Log, "The executor of the server cannot leave clients watching.", type, Response.Status.SERVICE_UNAVAILABLE);
+		}
+
+		if (watching.incrementAndGet() > MAX_WATCHING) {
+			watching.decrementAndGet();
+			throwWebAppException(Log, "Too many clients watching.", type, Response.Status.SERVICE_UNAVAILABLE);
+		}
+
+		ValuesFeed feed = feedOf(sheetId);
 		try {
-			result = engine.computeSpreadsheetValues(spreadsheet);
-		} catch (Exception exception) {
-			throwWebAppException(Log, "Error in spreadsheet", type, Response.Status.BAD_REQUEST);
+			long since = versionOf(version);
+			long deadline = System.currentTimeMillis() + (timeout == null ? WATCH_TIMEOUT : Math.max(0, Math.min(timeout, WATCH_TIMEOUT)));
+			for (;;) {
+				// taken before publishing, so that no update after it goes unnoticed
+				CompletableFuture<Void> updated = feed.nextUpdate();
+
+				publish(feed, spreadsheet);
+				ValuesChanges changed = feed.since(since, cells, v -> EPOCH + "-" + v);
+
+				long remaining = deadline - System.currentTimeMillis();
+				if (changed.getChanges() == null || !changed.getChanges().isEmpty() || remaining <= 0)
+					return changed;
+
+				try {
+					updated.get(remaining, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					// answered with no changes
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return changed;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e);
+				}
+				checkStillExists(sheetId, spreadsheet);
+			}
+		} finally {
+			feed.watchers.decrementAndGet();
+			feed.polled();
+			watching.decrementAndGet();
 		}
+	}
 
-		return new CellRange(range).extractRangeValuesFrom(result);
+	/**
+	 * The feed of the values of a sheet, counting the caller as a watcher.
+	 */
+	private ValuesFeed feedOf(String sheetId) {
+		if (!feeds.containsKey(sheetId)) {
+			// discards the values of the sheets no longer watched
+			long idle = System.currentTimeMillis() - WATCH_IDLE;
+			for (String watched : feeds.keySet())
+				feeds.computeIfPresent(watched, (id, feed) -> feed.idleSince(idle) ? null : feed);
+		}
+
+		return feeds.compute(sheetId, (id, feed) -> {
+			if (feed == null)
+				feed = new ValuesFeed();
+			feed.watchers.incrementAndGet();
+			return feed;
+		});
 	}
 
-	@Override
-	public String[][] getSpreadsheetValues(String sheetId, String userId, String password) {
+	/**
+	 * Publishes the values of the current version of a sheet, unless already published.
+	 */
+	private void publish(ValuesFeed feed, Spreadsheet spreadsheet) {
+		synchronized (feed.publishing) {
+			if (feed.version() == versions.getOrDefault(spreadsheet.getSheetId(), 0L))
+				return;
 
-		Spreadsheet spreadsheet = getSpreadsheet(sheetId, userId, password);
+			CachedValues computed = computeValues(spreadsheet, await(prefetch(spreadsheet)));
+			feed.publish(computed.version, computed.values);
+		}
+	}
+
+	/**
+	 * Fetches the ranges imported by a spreadsheet, unless its values are cached. The cells are read under
+	 * the read lock of the sheet, which is not held while the ranges are fetched.
+	 */
+	private CompletableFuture<AbstractSpreadsheet> prefetch(Spreadsheet spreadsheet) {
+		CachedValues cached = cachedValues.get(spreadsheet.getSheetId());
+		if (cached != null && cached.version == versions.getOrDefault(spreadsheet.getSheetId(), 0L))
+			return CompletableFuture.completedFuture(spreadsheet);
+
+		return engine.prefetch(spreadsheet, lockOf(spreadsheet.getSheetId()).readLock());
+	}
 
-		String[][] result = null;
+	/**
+	 * Computes the values of a spreadsheet, reusing the cached ones if the sheet did not change since.
+	 * Sheets with importrange cells are not cached, as their values depend on remote sheets.
+	 * @param resolved - the spreadsheet, with its imported ranges prefetched.
+	 * @return the values, along with the version of the sheet they were computed from.
+	 */
+	private CachedValues computeValues(Spreadsheet spreadsheet, AbstractSpreadsheet resolved) {
+		String sheetId = spreadsheet.getSheetId();
+
+		Lock lock = lockOf(sheetId).readLock();
+		lock.lock();
 		try {
-			result = engine.computeSpreadsheetValues(spreadsheet);
-		} catch (Exception exception) {
-			throwWebAppException(Log, "Error in spreadsheet", type, Response.Status.BAD_REQUEST);
+			long version = versions.getOrDefault(sheetId, 0L);
+
+			CachedValues cached = cachedValues.get(sheetId);
+			if (cached != null && cached.version == version)
+				return cached;
+
+			String[][] result = null;
+			try {
+				result = engine.computeSpreadsheetValues(resolved);
+			} catch (Exception exception) {
+				throwWebAppException(Log, "Error in spreadsheet", type, Response.Status.BAD_REQUEST);
+			}
+
+			CachedValues computed = new CachedValues(version, result, !hasImportRanges(spreadsheet));
+			if (computed.cacheable)
+				cachedValues.put(sheetId, computed);
+
+			return computed;
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	/**
+	 * Computes the values of a range of a spreadsheet. If the values of the whole sheet are not cached,
+	 * only the range and the cells it depends on are computed, and cached apart from the whole sheet.
+	 * @param resolved - the spreadsheet, with its imported ranges prefetched.
+	 * @return the values, along with the version of the sheet they were computed from.
+	 */
+	private CachedValues computeRangeValues(Spreadsheet spreadsheet, AbstractSpreadsheet resolved, String range) {
+		String sheetId = spreadsheet.getSheetId();
+
+		Lock lock = lockOf(sheetId).readLock();
+		lock.lock();
+		try {
+			long version = versions.getOrDefault(sheetId, 0L);
 
-		return result;
+			CachedValues whole = cachedValues.get(sheetId);
+			if (whole != null && whole.version == version)
+				return new CachedValues(version, new CellRange(range).extractRangeValuesFrom(whole.values), true);
+
+			String rangeKey = sheetId + "!" + range;
+			CachedValues cached = cachedValues.get(rangeKey);
+			if (cached != null && cached.version == version)
+				return cached;
+
+			String[][] result = null;
+			try {
+				result = engine.computeRangeValues(resolved, new CellRange(range));
+			} catch (Exception exception) {
+				throwWebAppException(Log, "Error in spreadsheet", type, Response.Status.BAD_REQUEST);
+			}
+
+			CachedValues computed = new CachedValues(version, result, !hasImportRanges(spreadsheet));
+			if (computed.cacheable) {
+				cachedRanges.computeIfAbsent(sheetId, id -> ConcurrentHashMap.newKeySet()).add(rangeKey);
+				cachedValues.put(rangeKey, computed);
+			}
+
+			return computed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static boolean hasImportRanges(Spreadsheet spreadsheet) {
+		boolean[] found = new boolean[1];
+		spreadsheet.forEachCell((row, col, rawValue) -> found[0] |= SpreadsheetEngineImpl.isImportRange(rawValue));
+		return found[0];
+	}
+
+	private long bumpVersion(String sheetId) {
+		cachedValues.remove(sheetId);
+		Set<String> ranges = cachedRanges.remove(sheetId);
+		if (ranges != null)
+			ranges.forEach(cachedValues::remove);
+		return versions.merge(sheetId, 1L, Long::sum);
+	}
+
+	/**
+	 * Records the updates of the cells of a sheet in its change log, and wakes the clients watching its
+	 * values, which must be done while holding the write lock of the sheet.
+	 */
+	private void logChanges(String sheetId, long version, List<CellUpdate> updates) {
+		ChangeLog log = changes.computeIfAbsent(sheetId, id -> new ChangeLog());
+		for (CellUpdate update : updates)
+			log.append(version, update.getCell(), update.getRawValue());
+
+		ValuesFeed feed = feeds.get(sheetId);
+		if (feed != null)
+			feed.updated();
 	}
 
 	@Override
@@ -250,68 +753,396 @@ public class SpreadsheetResource implements RestSpreadsheets, SoapSpreadsheets {
 			throwWebAppException(Log, "Malformed request.", type, Response.Status.BAD_REQUEST);
 		}
 
-		synchronized(this) {
+		Spreadsheet spreadsheet = checkReadAccess(sheetId, userId, password);
 
-			Spreadsheet spreadsheet = getSpreadsheet(sheetId, userId, password);
+		//TODO: Evitar ciclos de referencias
 
-			//TODO: Evitar ciclos de referencias
+		Pair<Integer,Integer> coordinates = null;
+		try {
+			coordinates = Cell.CellId2Indexes(cell);
+			if (coordinates.getLeft() >= spreadsheet.getRows() || coordinates.getRight() >= spreadsheet.getColumns())
+				throw new InvalidCellIdException(cell + " is outside the spreadsheet.");
+		} catch (InvalidCellIdException e) {
+			throwWebAppException(Log, "Invalid spreadsheet cell.", type, Response.Status.BAD_REQUEST);
+		}
 
-			try {
-				Pair<Integer,Integer> coordinates =  Cell.CellId2Indexes(cell);
+		CompletableFuture<Void> commit;
+		Lock lock = lockOf(sheetId).writeLock();
+		lock.lock();
+		try {
+			checkStillExists(sheetId, spreadsheet);
+
+			spreadsheet.setCellRawValue(coordinates.getLeft(),coordinates.getRight(), rawValue);
+			engine.cellUpdated(spreadsheet, coordinates.getLeft(), coordinates.getRight());
+			List<CellUpdate> updates = List.of(new CellUpdate(cell, rawValue));
+			logChanges(sheetId, bumpVersion(sheetId), updates);
+			commit = log(SpreadsheetRecord.updated(sheetId, updates));
+		} finally {
+			lock.unlock();
+		}
+		committed(commit);
+	}
+
+	/**
+	 * Every cell is validated before any is updated, so that either all updates are applied or none is.
+	 * The user is verified once for the whole batch, and the sheet version bumped once.
+	 */
+	@Override
+	public void updateCells(String sheetId, List<CellUpdate> updates, String userId, String password) {
+
+		if( sheetId == null || updates == null || userId == null || password == null) {
+			throwWebAppException(Log, "Malformed request.", type, Response.Status.BAD_REQUEST);
+		}
+
+		Spreadsheet spreadsheet = checkReadAccess(sheetId, userId, password);
 
-				spreadsheet.placeCellRawValue(coordinates.getLeft(),coordinates.getRight(), rawValue);
+		List<Pair<Integer,Integer>> coordinates = new ArrayList<>(updates.size());
+		for (CellUpdate update : updates) {
+			if (update == null || update.getCell() == null || update.getRawValue() == null) {
+				throwWebAppException(Log, "Malformed request.", type, Response.Status.BAD_REQUEST);
+			}
+			try {
+				Pair<Integer,Integer> cell = Cell.CellId2Indexes(update.getCell());
+				if (cell.getLeft() >= spreadsheet.getRows() || cell.getRight() >= spreadsheet.getColumns())
+					throw new InvalidCellIdException(update.getCell() + " is outside the spreadsheet.");
+				coordinates.add(cell);
 			} catch (InvalidCellIdException e) {
 				throwWebAppException(Log, "Invalid spreadsheet cell.", type, Response.Status.BAD_REQUEST);
 			}
-
 		}
 
+		CompletableFuture<Void> commit;
+		Lock lock = lockOf(sheetId).writeLock();
+		lock.lock();
+		try {
+			checkStillExists(sheetId, spreadsheet);
+
+			for (int i = 0; i < coordinates.size(); i++) {
+				int row = coordinates.get(i).getLeft(), col = coordinates.get(i).getRight();
+				spreadsheet.setCellRawValue(row, col, updates.get(i).getRawValue());
+				engine.cellUpdated(spreadsheet, row, col);
+			}
+			logChanges(sheetId, bumpVersion(sheetId), updates);
+			commit = log(SpreadsheetRecord.updated(sheetId, updates));
+		} finally {
+			lock.unlock();
+		}
+		committed(commit);
 	}
 
 
 	@Override
 	public void shareSpreadsheet(String sheetId, String userId, String password) {
 
-		checkSheetIdString(sheetId);
+		if( sheetId == null || userId == null || password == null ) {
+			throwWebAppException(Log, "SheetId or userId or password null.", type, Response.Status.BAD_REQUEST);
+		}
+
+		Spreadsheet sheet = checkSheet(sheetId);
+
+		verifyUser(sheet.getOwner(), password, Response.Status.FORBIDDEN, Response.Status.BAD_REQUEST);
+
+		CompletableFuture<Void> commit;
+		Lock lock = lockOf(sheetId).writeLock();
+		lock.lock();
+		try {
+			checkStillExists(sheetId, sheet);
+
+			if (!sheet.getSharedWith().add(userId)) {
+				throwWebAppException(Log, "Spreadsheet is already being shared with this user.", type, Response.Status.CONFLICT);
+			}
+
+			bumpVersion(sheetId);
+			commit = log(SpreadsheetRecord.shared(sheetId, userId));
+		} finally {
+			lock.unlock();
+		}
+		committed(commit);
+	}
+
+	@Override
+	public void unshareSpreadsheet(String sheetId, String userId, String password) {
+
+		if( sheetId == null || userId == null || password == null ) {
+			throwWebAppException(Log, "SheetId or userId or password null.", type, Response.Status.BAD_REQUEST);
+		}
+
+		Spreadsheet sheet = checkSheet(sheetId);
+
+		verifyUser(sheet.getOwner(), password, Response.Status.FORBIDDEN, Response.Status.BAD_REQUEST);
 
-		synchronized (this) {
+		CompletableFuture<Void> commit;
+		Lock lock = lockOf(sheetId).writeLock();
+		lock.lock();
+		try {
+			checkStillExists(sheetId, sheet);
+
+			if (!sheet.getSharedWith().remove(userId))
+				throwWebAppException(Log, "User " + userId + " is not sharing this spreadsheet therefore it cannot be unshared.",
+						type, Response.Status.NOT_FOUND);
+
+			bumpVersion(sheetId);
+			commit = log(SpreadsheetRecord.unshared(sheetId, userId));
+		} finally {
+			lock.unlock();
+		}
+		committed(commit);
+	}
 
-			Spreadsheet sheet = checkSheet(sheetId);
+	private Spreadsheet checkSheet(String sheetId) {
+		Spreadsheet sheet = sheetOf(sheetId);
 
-			users.getUser(sheet.getOwner(), password);
+		if( sheet == null ) {
+			throwWebAppException(Log, "Sheet doesnt exist.", type, Response.Status.NOT_FOUND);
+		}
 
-			Set<String> sharedWith = sheet.getSharedWith();
+		return sheet;
+	}
 
-			if (sharedWith.contains(userId)) {
-				Log.info("Spreadsheet is already being shared with this user.");
-				throw new WebApplicationException(Response.Status.CONFLICT);
+	/**
+	 * Gets a sheet, loading it from the snapshot it was restored from on first access.
+	 * @return the sheet, or null if it does not exist.
+	 */
+	private Spreadsheet sheetOf(String sheetId) {
+		Spreadsheet sheet = spreadsheets.get(sheetId);
+		if (sheet == null && unloaded.contains(sheetId)) {
+			sheet = spreadsheets.computeIfAbsent(sheetId, id -> unloaded.contains(id) ? withConcurrentShares(restored.sheet(id)) : null);
+			// only once the sheet is in spreadsheets, so that snapshots find it in one or the other
+			unloaded.remove(sheetId);
+		}
+		return sheet;
+	}
+
+	/**
+	 * Checks, under the sheet lock, that the sheet was not deleted while its owner was being verified.
+	 */
+	private void checkStillExists(String sheetId, Spreadsheet sheet) {
+		if( spreadsheets.get(sheetId) != sheet ) {
+			throwWebAppException(Log, "Sheet doesnt exist.", type, Response.Status.NOT_FOUND);
+		}
+	}
+
+	/**
+	 * Verifies the password of a user with the users service. This is a remote call, so it must
+	 * never be made while holding a sheet lock.
+	 */
+	private void verifyUser(String userId, String password, Response.Status invalid, Response.Status notFound) {
+		await(verifyUserAsync(userId, password, invalid, notFound));
+	}
+
+	private CompletableFuture<Void> verifyUserAsync(String userId, String password, Response.Status invalid, Response.Status notFound) {
+		if (credentials.isVerified(userId, password))
+			return CompletableFuture.completedFuture(null);
+
+		long stamp = credentials.stamp();
+		return getLocalUsersClientAsync().thenCompose(endpoint -> {
+			if (endpoint == null)
+				return CompletableFuture.failedFuture(new IllegalStateException("No users server is known."));
+
+			long start = System.nanoTime();
+			CompletableFuture<Boolean> verification;
+			try {
+				verification = endpoint.client.verifyUserAsync(userId, password);
+			} catch (Exception e) {
+				verification = CompletableFuture.failedFuture(e);
 			}
+			return verification.whenComplete((valid, error) -> usersCallCompleted(endpoint, start, error));
+		}).handle((valid, error) -> {
+			if (error != null)
+				throwWebAppException(Log, "User not found.", type, notFound);
 
-			sharedWith.add(userId);
+			if (!valid)
+				throwWebAppException(Log, "Invalid password.", type, invalid);
+
+			credentials.verified(userId, password, stamp);
+			return null;
+		});
+	}
 
+	/**
+	 * Reports the outcome of a call to the users service. Calls that got no answer, as opposed to
+	 * an error status, evict the client, so that the next call selects a server again.
+	 */
+	private void usersCallCompleted(Endpoint<UsersApiClient> endpoint, long start, Throwable error) {
+		if (answered(error))
+			discovery.reportLatency(endpoint.uri, (System.nanoTime() - start) / 1_000_000);
+		else {
+			discovery.reportFailure(endpoint.uri);
+			if (cachedUserClient == endpoint)
+				cachedUserClient = null;
 		}
+	}
 
+	/**
+	 * Waits for a future, rethrowing the exception it failed with as is.
+	 */
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
 	}
 
 	@Override
-	public void unshareSpreadsheet(String sheetId, String userId, String password) {
+	public void invalidateCredentials(String userId, String secret) {
 
-		checkSheetIdString(sheetId);
+		if( userId == null ) {
+			throwWebAppException(Log, "UserId null.", type, Response.Status.BAD_REQUEST);
+		}
 
-		synchronized (this) {
+		if( !CredentialsCache.isSecret(secret) ) {
+			throwWebAppException(Log, "Secret is incorrect.", type, Response.Status.FORBIDDEN);
+		}
 
-			Spreadsheet sheet = checkSheet(sheetId);
+		credentials.invalidate(userId);
+	}
 
-			users.getUser(sheet.getOwner(), password);
+	/**
+	 * Logs an operation, which must be done while holding the lock of the sheet.
+	 * @return the commit to wait for with committed(), once the lock is released.
+	 */
+	private CompletableFuture<Void> log(SpreadsheetRecord record) {
+		return journal == null ? null : journal.append(record);
+	}
 
-			Set<String> sharedWith = sheet.getSharedWith();
+	private void committed(CompletableFuture<Void> commit) {
+		if (commit == null)
+			return;
+		try {
+			commit.join();
+		} catch (CompletionException e) {
+			throwWebAppException(Log, "Could not persist the operation.", type, Response.Status.INTERNAL_SERVER_ERROR);
+		}
+	}
 
+	/**
+	 * Restores the sheets of a snapshot, which are only loaded when first accessed.
+	 */
+	private void restore(SpreadsheetSnapshots.Snapshot snapshot) {
+		restored = snapshot;
+		unloaded.addAll(snapshot.sheetIds());
+	}
 
-			if (!sharedWith.contains(userId))
-				throwWebAppException(Log, "User " + userId + " is not sharing this spreadsheet therefore it cannot be unshared.",
-						type, Response.Status.NOT_FOUND);
+	private void restore(Spreadsheet sheet) {
+		spreadsheets.put(sheet.getSheetId(), withConcurrentShares(sheet));
+		unloaded.remove(sheet.getSheetId());
+	}
+
+	// shares are read without locks, so they are kept in a concurrent set
+	private static Spreadsheet withConcurrentShares(Spreadsheet sheet) {
+		if (sheet != null) {
+			Set<String> sharedWith = ConcurrentHashMap.newKeySet();
+			if (sheet.getSharedWith() != null)
+				sharedWith.addAll(sheet.getSharedWith());
+			sheet.setSharedWith(sharedWith);
+		}
+		return sheet;
+	}
+
+	/**
+	 * Applies a logged operation. Operations are idempotent, as they may already be in the snapshot.
+	 */
+	private void replay(SpreadsheetRecord record) {
+		String sheetId = record.getSheetId();
+		switch (record.getType()) {
+			case CREATE:
+				restore(record.getSheet());
+				return;
+			case DELETE:
+				unloaded.remove(sheetId);
+				spreadsheets.remove(sheetId);
+				return;
+			default:
+		}
+
+		Spreadsheet sheet = sheetOf(sheetId);
+		if (sheet == null)
+			return;
+
+		switch (record.getType()) {
+			case UPDATE:
+				for (CellUpdate update : record.getUpdates()) {
+					try {
+						Pair<Integer,Integer> cell = Cell.CellId2Indexes(update.getCell());
+						sheet.setCellRawValue(cell.getLeft(), cell.getRight(), update.getRawValue());
+					} catch (InvalidCellIdException e) {
+						Log.warning("Invalid cell in the journal: " + update.getCell());
+					}
+				}
+				break;
+			case SHARE:
+				sheet.getSharedWith().add(record.getUserId());
+				break;
+			case UNSHARE:
+				sheet.getSharedWith().remove(record.getUserId());
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * The sheets for a snapshot: loaded sheets are copied, each under its lock, and sheets not yet loaded
+	 * are read from the snapshot they were restored from.
+	 */
+	private SpreadsheetSnapshots.Snapshot snapshot() {
+		// unloaded sheets are listed first, as a sheet loaded meanwhile is in spreadsheets by the time it is listed
+		List<String> sheetIds = new ArrayList<>(unloaded);
+		sheetIds.addAll(spreadsheets.keySet());
+
+		return new SpreadsheetSnapshots.Snapshot() {
+			@Override
+			public List<String> sheetIds() {
+				return sheetIds;
+			}
+
+			@Override
+			public Spreadsheet sheet(String sheetId) {
+				Spreadsheet sheet = spreadsheets.get(sheetId);
+				if (sheet == null) {
+					if (unloaded.contains(sheetId))
+						return restored.sheet(sheetId);
+					// the sheet may have been loaded between both checks, as it is put in spreadsheets first
+					sheet = spreadsheets.get(sheetId);
+					if (sheet == null)
+						return null;
+				}
+
+				Lock lock = lockOf(sheetId).readLock();
+				lock.lock();
+				try {
+					// skips the sheets deleted since they were listed
+					if (spreadsheets.get(sheetId) != sheet)
+						return null;
+					Spreadsheet copy = new Spreadsheet(sheet);
+					copy.setSharedWith(Set.copyOf(sheet.getSharedWith()));
+					return copy;
+				} finally {
+					lock.unlock();
+				}
+			}
+		};
+	}
+
+	private ReadWriteLock lockOf(String sheetId) {
+		return locks[(sheetId.hashCode() & 0x7fffffff) % locks.length];
+	}
+
+	static class CachedValues {
+		final long version;
+		final String[][] values;
+		final boolean cacheable;
+
+		CachedValues(long version, String[][] values, boolean cacheable) {
+			this.version = version;
+			this.values = values;
+			this.cacheable = cacheable;
+		}
 
-			sharedWith.remove(userId);
+		long cells() {
+			return values.length == 0 ? 0 : (long) values.length * values[0].length;
 		}
 	}
 }
@@ -6,12 +6,26 @@ import jakarta.ws.rs.core.Response.Status;
 import tp1.api.User;
 import tp1.api.service.rest.RestUsers;
 import tp1.api.service.soap.SoapUsers;
+import tp1.clients.SpreadsheetApiClient;
+import tp1.clients.SpreadsheetRestClient;
+import tp1.clients.SpreadsheetSoapClient;
+import tp1.discovery.Discovery;
 import tp1.server.WebServiceType;
+import tp1.server.persistence.JsonSnapshots;
+import tp1.server.persistence.Journal;
+import tp1.server.persistence.UserRecord;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -30,11 +44,46 @@ public class UsersResource implements RestUsers, SoapUsers {
 
 	private final Map<String, User> users = new HashMap<>();
 
+	// persists the users, if persistence is enabled
+	private final Journal<UserRecord[], UserRecord> journal;
+
 	private static Logger Log = Logger.getLogger(UsersResource.class.getName());
 
+	public static Discovery discovery;
+
+	// notifies the spreadsheets servers of changed credentials, in the background
+	private static final ExecutorService notifier = Executors.newFixedThreadPool(4, r -> {
+		Thread t = new Thread(r, "credentials-notifier");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final Map<URI, SpreadsheetApiClient> spreadsheetClients = new ConcurrentHashMap<>();
+
 	public UsersResource(String domainId, WebServiceType type) {
 		this.domainId = domainId;
 		this.type = type;
+
+		if (Journal.enabled()) {
+			this.journal = new Journal<>(domainId + "-users", UserRecord.class, new JsonSnapshots<>(UserRecord[].class));
+			this.journal.recover(this::restore, this::replay, this::snapshot);
+		} else
+			this.journal = null;
+
+		// creates the clients of the spreadsheets servers as soon as they are announced, on the notifier
+		// threads, as SOAP clients fetch their WSDL, which would hold the notifications of discovery
+		if (discovery != null && CredentialsCache.SECRET != null)
+			discovery.subscribe(domainId, SpreadsheetApiClient.SERVICE, uri -> notifier.execute(() -> {
+				try {
+					spreadsheetClientOf(uri);
+				} catch (Exception e) {
+					Log.info("Could not create the client of " + uri + ": " + e.getMessage());
+				}
+			}));
+	}
+
+	public static void setDiscovery(Discovery discovery) {
+		UsersResource.discovery = discovery;
 	}
 
 	@Override
@@ -46,18 +95,20 @@ public class UsersResource implements RestUsers, SoapUsers {
 			throwWebAppException(Log, "User object invalid.", type, Status.BAD_REQUEST );
 		}
 
+		String userId = user.getUserId() + "@" + domainId;
+		CompletableFuture<Void> commit;
 		synchronized ( this ) {
 
-			String userId = user.getUserId() + "@" + domainId;
-
 			if(users.containsKey(userId)) {
 				throwWebAppException(Log, "User already exists.", type, Status.CONFLICT);
 			}
 
 			users.put(userId, user);
-
-			return userId;
+			commit = log(UserRecord.put(userId, user));
 		}
+		committed(commit);
+
+		return userId;
 	}
 
 
@@ -91,8 +142,10 @@ public class UsersResource implements RestUsers, SoapUsers {
 			throwWebAppException(Log, "UserId or passwrod null.", type, Status.BAD_REQUEST );
 		}
 
+		User oldUser;
+		CompletableFuture<Void> commit;
 		synchronized ( this ) {
-			User oldUser = users.get(userId);
+			oldUser = users.get(userId);
 
 			if( oldUser == null ) {
 				throwWebAppException(Log, "User does not exist.", type, Status.NOT_FOUND );
@@ -102,10 +155,14 @@ public class UsersResource implements RestUsers, SoapUsers {
 				throwWebAppException(Log, "Password is incorrect.", type, Status.FORBIDDEN );
 			}
 
-			users.put(userId, new User(userId, user.getFullName(), user.getEmail(), user.getPassword()));
-
-			return oldUser;
+			User newUser = new User(userId, user.getFullName(), user.getEmail(), user.getPassword());
+			users.put(userId, newUser);
+			commit = log(UserRecord.put(userId, newUser));
 		}
+		committed(commit);
+
+		credentialsChanged(userId);
+		return oldUser;
 	}
 
 
@@ -117,8 +174,10 @@ public class UsersResource implements RestUsers, SoapUsers {
 			throwWebAppException(Log, "UserId or passwrod null.", type, Status.BAD_REQUEST );
 		}
 
+		User user;
+		CompletableFuture<Void> commit;
 		synchronized ( this ) {
-			User user = users.get(userId);
+			user = users.get(userId);
 
 			if( user == null ) {
 				throwWebAppException(Log, "User does not exist.", type, Status.NOT_FOUND );
@@ -129,10 +188,92 @@ public class UsersResource implements RestUsers, SoapUsers {
 			}
 
 
-			return users.remove(userId);
+			users.remove(userId);
+			commit = log(UserRecord.deleted(userId));
+		}
+		committed(commit);
+
+		credentialsChanged(userId);
+		return user;
+	}
+
+	/**
+	 * Logs an operation, which must be done while holding the lock of the users.
+	 * @return the commit to wait for with committed(), once the lock is released.
+	 */
+	private CompletableFuture<Void> log(UserRecord record) {
+		return journal == null ? null : journal.append(record);
+	}
+
+	private void committed(CompletableFuture<Void> commit) {
+		if (commit == null)
+			return;
+		try {
+			commit.join();
+		} catch (CompletionException e) {
+			throwWebAppException(Log, "Could not persist the operation.", type, Status.INTERNAL_SERVER_ERROR);
 		}
 	}
 
+	private void restore(UserRecord[] snapshot) {
+		for (UserRecord record : snapshot)
+			replay(record);
+	}
+
+	private void replay(UserRecord record) {
+		if (record.getType() == UserRecord.Type.PUT)
+			users.put(record.getUserId(), record.getUser());
+		else
+			users.remove(record.getUserId());
+	}
+
+	/**
+	 * Snapshots the users as the records that create them, as created users are not stored under their own id.
+	 */
+	private synchronized UserRecord[] snapshot() {
+		return users.entrySet().stream()
+				.map(e -> UserRecord.put(e.getKey(), e.getValue()))
+				.toArray(UserRecord[]::new);
+	}
+
+	/**
+	 * Tells the spreadsheets servers of the domain to discard the cached credentials of a user, which they
+	 * only accept with the secret of the domain. Lost notifications are covered by the short TTL of the
+	 * cached credentials.
+	 */
+	private void credentialsChanged(String userId) {
+		if (discovery == null || CredentialsCache.SECRET == null)
+			return;
+
+		Set<URI> uris = discovery.knownUrisOf(domainId, SpreadsheetApiClient.SERVICE);
+		// drops the clients of servers no longer announced
+		spreadsheetClients.keySet().removeIf(uri -> !discovery.isAlive(uri));
+		if (uris == null)
+			return;
+
+		for (URI uri : uris)
+			notifier.execute(() -> {
+				try {
+					spreadsheetClientOf(uri).invalidateCredentials(userId, CredentialsCache.SECRET);
+				} catch (Exception e) {
+					Log.info("Could not invalidate the credentials of " + userId + " at " + uri + ": " + e.getMessage());
+				}
+			});
+	}
+
+	private SpreadsheetApiClient spreadsheetClientOf(URI uri) {
+		return spreadsheetClients.computeIfAbsent(uri, u -> {
+			try {
+				if (u.toString().contains("/rest"))
+					return new SpreadsheetRestClient(u.toString());
+				else
+					return new SpreadsheetSoapClient(u.toString());
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
 
 	@Override
 	public List<User> searchUsers(String pattern) {
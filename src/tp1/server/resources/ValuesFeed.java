@@ -0,0 +1,117 @@
+package tp1.server.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+import org.apache.commons.lang3.tuple.Pair;
+import tp1.api.CellUpdate;
+import tp1.api.CellValue;
+import tp1.api.ValuesChanges;
+import tp1.util.Cell;
+import tp1.util.CellRange;
+import tp1.util.InvalidCellIdException;
+
+/**
+ * The computed values of a sheet, published to the clients waiting for them to change, along with the
+ * recent changes of the values, so that each client gets only the values that changed since the version
+ * it holds.
+ *
+ * Values are computed once per version, by the first client that needs them, and shared by all others.
+ * Versions updated meanwhile are coalesced into the next computation, and clients that fall behind the
+ * bounded log of changes get all the values instead, so slow clients cost no more than a fresh one.
+ */
+class ValuesFeed {
+
+	// guards the computation of the values, so that they are computed once per version
+	final Object publishing = new Object();
+
+	// completed when the sheet is updated, and then replaced
+	private volatile CompletableFuture<Void> next = new CompletableFuture<>();
+
+	// number of clients waiting, and time of the last poll, so that feeds no longer polled are discarded
+	final AtomicInteger watchers = new AtomicInteger();
+	private volatile long polled = System.currentTimeMillis();
+
+	private long version = -1;
+	private String[][] values;
+	private ChangeLog changes;
+
+	/**
+	 * Wakes the clients waiting for the sheet to be updated. Called while holding the write lock of the sheet.
+	 */
+	void updated() {
+		CompletableFuture<Void> updated = next;
+		next = new CompletableFuture<>();
+		updated.complete(null);
+	}
+
+	/**
+	 * @return a future completed on the next update of the sheet.
+	 */
+	CompletableFuture<Void> nextUpdate() {
+		return next;
+	}
+
+	void polled() {
+		polled = System.currentTimeMillis();
+	}
+
+	boolean idleSince(long time) {
+		return watchers.get() == 0 && polled < time;
+	}
+
+	synchronized long version() {
+		return version;
+	}
+
+	/**
+	 * Publishes the values of a newer version of the sheet, logging the cells whose values changed.
+	 */
+	synchronized void publish(long version, String[][] values) {
+		if (version <= this.version)
+			return;
+
+		if (this.values == null || this.values.length != values.length)
+			changes = new ChangeLog(version);
+		else
+			for (int row = 0; row < values.length; row++)
+				for (int col = 0; col < values[row].length; col++)
+					if (!Objects.equals(this.values[row][col], values[row][col]))
+						changes.append(version, Cell.Indices2CellId(row, col), values[row][col]);
+
+		this.version = version;
+		this.values = values;
+	}
+
+	/**
+	 * The values of a range that changed since a version, or all the values of the range if those changes
+	 * are no longer known.
+	 * @param range - the range, or null for the whole sheet
+	 * @param tag - tags the versions of the values
+	 */
+	synchronized ValuesChanges since(long version, CellRange range, LongFunction<String> tag) {
+		List<CellUpdate> updates = version < 0 || version > this.version ? null : changes.since(version);
+		if (updates == null)
+			return new ValuesChanges(tag.apply(this.version), null, range == null ? values : range.extractRangeValuesFrom(values));
+
+		List<CellValue> changed = new ArrayList<>(updates.size());
+		for (CellUpdate update : updates)
+			if (range == null || contains(range, update.getCell()))
+				changed.add(new CellValue(update.getCell(), update.getRawValue()));
+		return new ValuesChanges(tag.apply(this.version), changed, null);
+	}
+
+	private static boolean contains(CellRange range, String cell) {
+		try {
+			Pair<Integer, Integer> at = Cell.CellId2Indexes(cell);
+			return at.getLeft() >= range.topRow && at.getLeft() <= range.botRow
+					&& at.getRight() >= range.topCol && at.getRight() <= range.botCol;
+		} catch (InvalidCellIdException e) {
+			return false;
+		}
+	}
+}
@@ -28,6 +28,16 @@ public class CellRange {
 		} else
 			topRow = topCol = botRow = botCol = -1; // bad range string.
 	}
+
+	/**
+	 * Builds a range from the index coordinates of its top and bottom corner cells
+	 */
+	public CellRange( int topRow, int topCol, int botRow, int botCol ) {
+		this.topRow = topRow;
+		this.topCol = topCol;
+		this.botRow = botRow;
+		this.botCol = botCol;
+	}
 	
 	/**
 	 * Computes the number of columns this range of cells contains.
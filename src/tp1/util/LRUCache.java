@@ -0,0 +1,70 @@
+package tp1.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ *
+ * Thread-safe cache bounded by the total weight of its values, evicting the least recently used entries first.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class LRUCache<K, V> {
+
+	private final long maxWeight;
+	private final ToLongFunction<V> weigher;
+	private final LinkedHashMap<K, V> entries;
+
+	private long weight;
+
+	/**
+	 * @param maxWeight - the maximum total weight of the cached values
+	 * @param weigher - computes the weight of a value, e.g. its number of cells
+	 */
+	public LRUCache(long maxWeight, ToLongFunction<V> weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	public synchronized V get(K key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Caches a value, evicting the least recently used entries until the cache is within its bounds.
+	 * Values heavier than the cache itself are not cached.
+	 */
+	public synchronized void put(K key, V value) {
+		long w = weigher.applyAsLong(value);
+		if (w > maxWeight) {
+			remove(key);
+			return;
+		}
+
+		V old = entries.put(key, value);
+		if (old != null)
+			weight -= weigher.applyAsLong(old);
+		weight += w;
+
+		Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+		while (weight > maxWeight && it.hasNext()) {
+			weight -= weigher.applyAsLong(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	public synchronized V remove(K key) {
+		V old = entries.remove(key);
+		if (old != null)
+			weight -= weigher.applyAsLong(old);
+		return old;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+}
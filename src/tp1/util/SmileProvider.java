@@ -0,0 +1,89 @@
+package tp1.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.ext.MessageBodyReader;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Reads and writes REST payloads in Smile, the binary encoding of the JSON data model, for the
+ * application/x-jackson-smile media type. Payloads are mapped as they are in JSON, but numbers and lengths
+ * are binary, and repeated names and short strings, such as the repeated values of cells, are written once
+ * and then referenced.
+ *
+ * Registered in the servers and REST clients, besides the JSON provider; clients prefer it through the
+ * Accept header, and servers that do not register it answer in JSON.
+ */
+@Provider
+@Consumes(SmileProvider.APPLICATION_SMILE)
+@Produces(SmileProvider.APPLICATION_SMILE)
+public class SmileProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+	public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+	public static final MediaType APPLICATION_SMILE_TYPE = MediaType.valueOf(APPLICATION_SMILE);
+
+	// the media types accepted by the REST clients, by order of preference
+	public static final String[] ACCEPTED = { APPLICATION_SMILE, MediaType.APPLICATION_JSON + ";q=0.9" };
+
+	static final SmileFactory factory = new SmileFactory();
+	static {
+		factory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+		factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+	}
+
+	public static final ObjectMapper smile = new ObjectMapper(factory);
+
+	/**
+	 * Tests if a media type is the one of Smile.
+	 */
+	public static boolean isSmile(MediaType type) {
+		return type != null && APPLICATION_SMILE_TYPE.isCompatible(type) && !type.isWildcardType() && !type.isWildcardSubtype();
+	}
+
+	/**
+	 * Tests if a Content-Type header value is the one of Smile.
+	 */
+	public static boolean isSmile(String contentType) {
+		return contentType != null && isSmile(MediaType.valueOf(contentType));
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return isSmile(mediaType);
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+		return smile.readValue(entityStream, smile.constructType(genericType));
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return isSmile(mediaType) && !StreamingOutput.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+		smile.writerFor(smile.constructType(genericType)).writeValue(entityStream, value);
+	}
+}
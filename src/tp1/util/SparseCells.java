@@ -0,0 +1,132 @@
+package tp1.util;
+
+/**
+ * Map of the non-empty cells of a spreadsheet, from (row, col) to raw value.
+ *
+ * Cells are keyed by a long, (row << 32 | col), in an open addressing table with linear probing,
+ * so a sheet costs memory in proportion to its non-empty cells instead of its dimensions.
+ * Not thread safe.
+ */
+public class SparseCells {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	// a null value marks a free slot
+	private String[] values;
+	private int size;
+
+	public SparseCells() {
+		this.keys = new long[MIN_CAPACITY];
+		this.values = new String[MIN_CAPACITY];
+	}
+
+	public SparseCells(SparseCells other) {
+		this.keys = other.keys.clone();
+		this.values = other.values.clone();
+		this.size = other.size;
+	}
+
+	/**
+	 * The raw value of a cell, or the empty string if the cell is empty.
+	 */
+	public String get(int row, int col) {
+		long key = key(row, col);
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask)
+			if (keys[i] == key)
+				return values[i];
+		return "";
+	}
+
+	/**
+	 * Sets the raw value of a cell. Null or empty values empty the cell.
+	 */
+	public void put(int row, int col, String value) {
+		long key = key(row, col);
+		if (value == null || value.isEmpty()) {
+			remove(key);
+			return;
+		}
+
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for (; values[i] != null; i = (i + 1) & mask)
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length)
+			resize(keys.length * 2);
+	}
+
+	/**
+	 * The number of non-empty cells.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Visits the non-empty cells, in no particular order.
+	 */
+	public void forEach(Visitor visitor) {
+		for (int i = 0; i < keys.length; i++)
+			if (values[i] != null)
+				visitor.visit((int) (keys[i] >>> 32), (int) keys[i], values[i]);
+	}
+
+	private void remove(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (values[i] != null && keys[i] != key)
+			i = (i + 1) & mask;
+		if (values[i] == null)
+			return;
+
+		values[i] = null;
+		size--;
+
+		// shifts back the rest of the cluster, so that lookups do not stop short at the freed slot
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask)
+			if (((j - slot(keys[j], mask)) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		String[] oldValues = values;
+		keys = new long[capacity];
+		values = new String[capacity];
+
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++)
+			if (oldValues[j] != null) {
+				int i = slot(oldKeys[j], mask);
+				while (values[i] != null)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	public interface Visitor {
+		void visit(int row, int col, String value);
+	}
+}
@@ -0,0 +1,83 @@
+package tp1.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Writes and reads the values of spreadsheets as JSON arrays of rows, a row at a time, so that the reader
+ * handles each row as it arrives, without holding the whole matrix of values. The writer is given the whole
+ * matrix, as the engines compute it, and writes it to the stream as the JSON provider would. Arrays are
+ * encoded in JSON or, for the Smile media type, in Smile.
+ */
+public class ValuesStreams {
+
+	private static final JsonFactory json = new JsonFactory()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+	/**
+	 * Writes values as a JSON array of rows. The stream is flushed, but not closed.
+	 * @param type - the media type of the encoding
+	 */
+	public static void write(String[][] values, OutputStream out, MediaType type) throws IOException {
+		try (JsonGenerator generator = factoryOf(type).createGenerator(out)) {
+			generator.writeStartArray();
+			for (String[] row : values) {
+				generator.writeStartArray();
+				for (String value : row)
+					generator.writeString(value);
+				generator.writeEndArray();
+			}
+			generator.writeEndArray();
+		}
+	}
+
+	/**
+	 * Reads a JSON array of rows, handing each row to a consumer as soon as it is read.
+	 * The stream is not closed.
+	 * @param type - the media type of the encoding
+	 */
+	public static void read(InputStream in, MediaType type, Consumer<String[]> rows) throws IOException {
+		try (JsonParser parser = factoryOf(type).createParser(in)) {
+			expect(parser, JsonToken.START_ARRAY);
+
+			List<String> row = new ArrayList<>();
+			for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+				if (token != JsonToken.START_ARRAY)
+					throw new IOException("Expected a row of values, found " + token);
+
+				row.clear();
+				for (token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+					if (token == JsonToken.VALUE_NULL)
+						row.add(null);
+					else if (token != null && token.isScalarValue())
+						row.add(parser.getText());
+					else
+						throw new IOException("Expected a value, found " + token);
+				}
+				rows.accept(row.toArray(new String[0]));
+			}
+		}
+	}
+
+	private static JsonFactory factoryOf(MediaType type) {
+		return SmileProvider.isSmile(type) ? SmileProvider.factory : json;
+	}
+
+	private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token != expected)
+			throw new IOException("Expected " + expected + ", found " + token);
+	}
+}
@@ -0,0 +1,57 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.impl.engine.formula.Values;
+
+/**
+ * The native engine must compute what the GemBox engine does, so that either can serve the same sheets.
+ */
+class EngineAgreementTest {
+
+	// A1..A4 hold constants and C1 is blank; each formula is put in its own row of column B
+	private static final List<String> CONSTANTS = List.of("3", "abc", "true", "5");
+
+	private static final List<String> FORMULAS = List.of(
+			"=1+2*3", "=(1+2)*3", "=1-2-3", "=10/4", "=2*3^2", "=2^3^2",
+			"=-2^2", "=2^-2", "=-(2^2)", "=2*-3", "=0-2^3",
+			"=C1=0", "=C1<1", "=C1=\"\"", "=C1>0", "=A1+C1",
+			"=A1=3", "=A1<>A4", "=A4>=5", "=A1<A2", "=\"abc\"=\"ABC\"", "=1+1=2",
+			"=A1&A2", "=\"x\"&A1", "=\"2\"+A1", "=A1+A3",
+			"=SUM(A1:A4)", "=AVERAGE(A1:A4)", "=MIN(A1:A4)", "=MAX(A1:A4,1)", "=SUM(A1,A4,2)",
+			"=IF(A1>2,\"big\",\"small\")", "=IF(A1>5,1)", "=IF(A3,A1,A4)",
+			"=B1+B2", "=SUM(B1:B3)*2");
+
+	@Test
+	void nativeEngineMatchesGemBox() {
+		Spreadsheet sheet = new Spreadsheet("agreement", "owner@domain", null, FORMULAS.size(), 3, Set.of(), null);
+		for (int row = 0; row < CONSTANTS.size(); row++)
+			sheet.setCellRawValue(row, 0, CONSTANTS.get(row));
+		for (int row = 0; row < FORMULAS.size(); row++)
+			sheet.setCellRawValue(row, 1, FORMULAS.get(row));
+
+		SpreadsheetEngine gembox = new SpreadsheetEngineImpl(), nativeEngine = new NativeSpreadsheetEngine();
+		String[][] expected = gembox.computeSpreadsheetValues(sheet), actual = nativeEngine.computeSpreadsheetValues(sheet);
+
+		for (int row = 0; row < FORMULAS.size(); row++)
+			assertEquals(normalized(expected[row][1]), normalized(actual[row][1]), FORMULAS.get(row));
+	}
+
+	/**
+	 * Numbers are compared by value and booleans regardless of case, as the engines format them differently.
+	 */
+	private static String normalized(String value) {
+		if (Values.isNumber(value))
+			return Double.toString(Double.parseDouble(value));
+		if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"))
+			return value.toLowerCase();
+		return value;
+	}
+}
@@ -0,0 +1,149 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.util.Cell;
+import tp1.util.CellRange;
+
+/**
+ * The incremental engine must compute, after any sequence of updates, the values a full computation does.
+ */
+class IncrementalSpreadsheetEngineTest {
+
+	private final SpreadsheetEngine full = new NativeSpreadsheetEngine();
+	private final SpreadsheetEngine incremental = IncrementalSpreadsheetEngine.getInstance(new NativeSpreadsheetEngine());
+
+	@Test
+	void recomputesTheDependentsOfAnUpdatedCell() {
+		Spreadsheet sheet = sheet("chain", 4, 2);
+		update(sheet, "A1", "1");
+		update(sheet, "A2", "=A1+1");
+		update(sheet, "A3", "=A2*2");
+		update(sheet, "B1", "=SUM(A1:A3)");
+		assertEquals("4.0", incremental.computeSpreadsheetValues(sheet)[2][0]);
+
+		update(sheet, "A1", "10");
+		String[][] values = incremental.computeSpreadsheetValues(sheet);
+		assertEquals("11.0", values[1][0]);
+		assertEquals("22.0", values[2][0]);
+		assertEquals("43.0", values[0][1]);
+		assertSameAsFull(sheet);
+	}
+
+	@Test
+	void followsTheReferencesOfAnUpdatedFormula() {
+		Spreadsheet sheet = sheet("references", 2, 3);
+		update(sheet, "A1", "1");
+		update(sheet, "C1", "2");
+		update(sheet, "B1", "=A1");
+		incremental.computeSpreadsheetValues(sheet);
+
+		// B1 no longer reads A1, but reads C1
+		update(sheet, "B1", "=C1");
+		update(sheet, "A1", "5");
+		assertEquals("2.0", incremental.computeSpreadsheetValues(sheet)[0][1]);
+		update(sheet, "C1", "7");
+		assertEquals("7.0", incremental.computeSpreadsheetValues(sheet)[0][1]);
+
+		// a formula reading a blank cell is recomputed once the cell is set
+		update(sheet, "A2", "=B2*3");
+		assertEquals("0.0", incremental.computeSpreadsheetValues(sheet)[1][0]);
+		update(sheet, "B2", "4");
+		assertEquals("12.0", incremental.computeSpreadsheetValues(sheet)[1][0]);
+		assertSameAsFull(sheet);
+	}
+
+	@Test
+	void recoversFromCyclesIntroducedAndBrokenByUpdates() {
+		Spreadsheet sheet = sheet("cycles", 1, 3);
+		update(sheet, "A1", "1");
+		update(sheet, "B1", "=A1+1");
+		update(sheet, "C1", "=B1+1");
+		incremental.computeSpreadsheetValues(sheet);
+
+		update(sheet, "A1", "=C1");
+		assertSameAsFull(sheet);
+		update(sheet, "A1", "2");
+		assertEquals("4.0", incremental.computeSpreadsheetValues(sheet)[0][2]);
+		assertSameAsFull(sheet);
+	}
+
+	@Test
+	void servesRangesFromTheLastComputedValues() {
+		Spreadsheet sheet = sheet("ranges", 3, 3);
+		update(sheet, "A1", "1");
+		update(sheet, "B2", "=A1*2");
+		incremental.computeSpreadsheetValues(sheet);
+
+		update(sheet, "A1", "3");
+		assertArrayEquals(new String[][] { { "6.0" } }, incremental.computeRangeValues(sheet, new CellRange("B2:B2")));
+		assertSameAsFull(sheet);
+	}
+
+	@Test
+	void matchesFullComputationsAfterRandomUpdates() {
+		Random random = new Random(42);
+		Spreadsheet sheet = sheet("random", 8, 8);
+		for (int i = 0; i < 500; i++) {
+			String cell = Cell.Indices2CellId(random.nextInt(8), random.nextInt(8));
+			update(sheet, cell, randomRawValue(random));
+			if (random.nextInt(4) == 0)
+				assertSameAsFull(sheet);
+		}
+		assertSameAsFull(sheet);
+	}
+
+	@Test
+	void forgetsDiscardedSheets() {
+		Spreadsheet sheet = sheet("discarded", 1, 2);
+		update(sheet, "A1", "1");
+		update(sheet, "B1", "=A1");
+		incremental.computeSpreadsheetValues(sheet);
+
+		incremental.discard(sheet.getSheetId());
+		// updated while discarded, so it is only seen by a full computation
+		sheet.setCellRawValue(0, 0, "2");
+		assertEquals("2.0", incremental.computeSpreadsheetValues(sheet)[0][1]);
+	}
+
+	private static String randomRawValue(Random random) {
+		String a = Cell.Indices2CellId(random.nextInt(8), random.nextInt(8));
+		String b = Cell.Indices2CellId(random.nextInt(8), random.nextInt(8));
+		switch (random.nextInt(6)) {
+			case 0:
+				return "";
+			case 1:
+				return Integer.toString(random.nextInt(100));
+			case 2:
+				return "=" + a + "+" + b;
+			case 3:
+				return "=" + a + "*2";
+			case 4:
+				return "=SUM(" + a + ":" + b + ")";
+			default:
+				return "=IF(" + a + ">50," + b + ",1)";
+		}
+	}
+
+	private void assertSameAsFull(Spreadsheet sheet) {
+		assertArrayEquals(full.computeSpreadsheetValues(sheet), incremental.computeSpreadsheetValues(sheet));
+	}
+
+	private void update(Spreadsheet sheet, String cell, String rawValue) {
+		sheet.placeCellRawValue(cell, rawValue);
+		var coordinates = new CellRange(cell + ":" + cell);
+		incremental.cellUpdated(sheet, coordinates.topRow, coordinates.topCol);
+	}
+
+	private static Spreadsheet sheet(String sheetId, int rows, int columns) {
+		return new Spreadsheet(sheetId, "owner@domain", null, rows, columns, Set.of(), null);
+	}
+}
@@ -0,0 +1,68 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.util.Cell;
+import tp1.util.CellRange;
+
+/**
+ * Sheets with at least -Dtp1.engine.parallel.threshold (10000) formulas are evaluated a level at a time,
+ * in parallel, and must compute what the serial evaluation of smaller computations does.
+ */
+class ParallelEvaluationTest {
+
+	private static final int ROWS = 20, COLS = 600;
+
+	// columns computed at a time by the serial computations, whose closures stay below the threshold
+	private static final int CHUNK = 10;
+
+	private final SpreadsheetEngine engine = new NativeSpreadsheetEngine();
+
+	@Test
+	void matchesSerialEvaluation() {
+		Spreadsheet sheet = new Spreadsheet("parallel", "owner@domain", null, ROWS, COLS, Set.of(), null);
+		for (int col = 0; col < COLS; col++)
+			sheet.setCellRawValue(0, col, col % 7 == 0 ? "text" : Integer.toString(col % 13));
+		for (int row = 1; row < ROWS; row++)
+			for (int col = 0; col < COLS; col++)
+				sheet.setCellRawValue(row, col, formula(row, col));
+
+		// a cycle, whose cells and dependents are errors
+		sheet.setCellRawValue(ROWS - 2, 5, "=" + Cell.Indices2CellId(ROWS - 2, 6));
+		sheet.setCellRawValue(ROWS - 2, 6, "=" + Cell.Indices2CellId(ROWS - 2, 5) + "+1");
+
+		String[][] parallel = engine.computeSpreadsheetValues(sheet);
+		assertEquals("#ERROR?", parallel[ROWS - 2][5]);
+
+		for (int col = 0; col < COLS; col += CHUNK) {
+			var chunk = new CellRange(0, col, ROWS - 1, Math.min(COLS, col + CHUNK) - 1);
+			assertArrayEquals(chunk.extractRangeValuesFrom(parallel), engine.computeRangeValues(sheet, chunk), chunk.toString());
+		}
+	}
+
+	/**
+	 * A formula reading the row above: the cell above and its neighbours, so that every row is a level.
+	 */
+	private static String formula(int row, int col) {
+		String above = Cell.Indices2CellId(row - 1, col);
+		String left = Cell.Indices2CellId(row - 1, Math.max(0, col - 1));
+		String right = Cell.Indices2CellId(row - 1, Math.min(COLS - 1, col + 1));
+		switch (col % 4) {
+			case 0:
+				return "=" + left + "+" + right + "*2";
+			case 1:
+				return "=SUM(" + left + ":" + right + ")";
+			case 2:
+				return "=IF(" + above + ">100," + above + "/2," + above + "*3-1)";
+			default:
+				return "=MAX(" + left + "," + above + ")-MIN(" + above + ":" + right + ")";
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.impl.engine.SpreadsheetEngineImpl.CellType;
+
+class ParsedCellTest {
+
+	@Test
+	void classifiesConstants() {
+		assertEquals(CellType.EMPTY, ParsedCell.of("").type);
+		assertEquals(CellType.TEXT, ParsedCell.of("abc").type);
+		assertEquals(CellType.TEXT, ParsedCell.of("1.2.3").type);
+
+		ParsedCell bool = ParsedCell.of("TRUE");
+		assertEquals(CellType.BOOLEAN, bool.type);
+		assertTrue(bool.bool);
+		assertFalse(ParsedCell.of("false").bool);
+
+		ParsedCell number = ParsedCell.of("-1.5e2");
+		assertEquals(CellType.NUMBER, number.type);
+		assertEquals(-150.0, number.number);
+	}
+
+	@Test
+	void sharesConstantInstances() {
+		assertSame(ParsedCell.of(""), ParsedCell.of(new String("")));
+		assertSame(ParsedCell.of("abc"), ParsedCell.of("xyz"));
+		assertSame(ParsedCell.of("true"), ParsedCell.of("True"));
+	}
+
+	@Test
+	void parsesFormulasOnce() {
+		ParsedCell formula = ParsedCell.of("=A1+1");
+		assertEquals(CellType.FORMULA, formula.type);
+		assertNotNull(formula.formula);
+		assertSame(formula, ParsedCell.of(new String("=A1+1")));
+
+		ParsedCell unsupported = ParsedCell.of("=VLOOKUP(A1,B1:C2,2)");
+		assertEquals(CellType.FORMULA, unsupported.type);
+		assertNull(unsupported.formula);
+		assertSame(unsupported, ParsedCell.of("=VLOOKUP(A1,B1:C2,2)"));
+	}
+
+	@Test
+	void parsesImportRanges() {
+		ParsedCell imported = ParsedCell.of("=importrange(\"http://host:8080/rest/spreadsheets/id\",\"A1:B2\")");
+		assertEquals(CellType.IMPORTRANGE, imported.type);
+		assertEquals("http://host:8080/rest/spreadsheets/id", imported.sheetURL);
+		assertEquals("A1:B2", imported.range);
+
+		ParsedCell malformed = ParsedCell.of("=IMPORTRANGE(A1)");
+		assertEquals(CellType.IMPORTRANGE, malformed.type);
+		assertNull(malformed.sheetURL);
+	}
+
+	@Test
+	void parsesFormulasBeyondTheCacheCapacity() {
+		for (int i = 0; i < (1 << 17); i++)
+			assertEquals(CellType.FORMULA, ParsedCell.of("=" + i + "+1").type);
+		assertNotNull(ParsedCell.of("=0+1").formula);
+	}
+}
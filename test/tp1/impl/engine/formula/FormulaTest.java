@@ -0,0 +1,124 @@
+package tp1.impl.engine.formula;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.util.CellRange;
+
+/**
+ * Parsing and evaluation of formulas, with Excel's precedence and conversions.
+ */
+class FormulaTest {
+
+	// A1 = 3, A2 = "abc", A3 = TRUE, A4 = 5, every other cell of the first 9 rows and 2 columns is blank
+	private static final Map<String, Object> CELLS = Map.of("A1", 3.0, "A2", "abc", "A3", Boolean.TRUE, "A4", 5.0);
+
+	private static final CellValues cells = (row, col) -> {
+		if (row < 0 || row >= 9 || col < 0 || col >= 2)
+			return Expr.ERROR;
+		return CELLS.getOrDefault(String.valueOf((char) ('A' + col)) + (row + 1), "");
+	};
+
+	@Test
+	void appliesOperatorsByPrecedence() {
+		assertEquals(7.0, evaluate("=1+2*3"));
+		assertEquals(9.0, evaluate("=(1+2)*3"));
+		assertEquals(-4.0, evaluate("=1-2-3"));
+		assertEquals(2.5, evaluate("=10/4"));
+		assertEquals(18.0, evaluate("=2*3^2"));
+		assertEquals(64.0, evaluate("=2^3^2"));
+		assertEquals("7x", evaluate("=1+2*3&\"x\""));
+		assertEquals(Boolean.TRUE, evaluate("=1+1=2"));
+	}
+
+	@Test
+	void bindsUnaryMinusTighterThanPower() {
+		assertEquals(4.0, evaluate("=-2^2"));
+		assertEquals(0.25, evaluate("=2^-2"));
+		assertEquals(-4.0, evaluate("=-(2^2)"));
+		assertEquals(-6.0, evaluate("=2*-3"));
+		assertEquals(-8.0, evaluate("=0-2^3"));
+		assertEquals(3.0, evaluate("=--3"));
+		assertEquals(-9.0, evaluate("=-A1^2*-1"));
+	}
+
+	@Test
+	void comparesBlankCellsAsExcelDoes() {
+		assertEquals(Boolean.TRUE, evaluate("=B1=0"));
+		assertEquals(Boolean.TRUE, evaluate("=B1<1"));
+		assertEquals(Boolean.TRUE, evaluate("=0=B1"));
+		assertEquals(Boolean.TRUE, evaluate("=B1=\"\""));
+		assertEquals(Boolean.TRUE, evaluate("=B1<\"a\""));
+		assertEquals(Boolean.TRUE, evaluate("=B1=FALSE"));
+		assertEquals(Boolean.TRUE, evaluate("=B1=B2"));
+		assertEquals(Boolean.FALSE, evaluate("=B1>0"));
+	}
+
+	@Test
+	void comparesValuesOfDifferentTypesAsExcelDoes() {
+		assertEquals(Boolean.TRUE, evaluate("=A1<A2"));
+		assertEquals(Boolean.TRUE, evaluate("=A2<A3"));
+		assertEquals(Boolean.TRUE, evaluate("=\"abc\"=\"ABC\""));
+		assertEquals(Boolean.TRUE, evaluate("=A1<>A4"));
+		assertEquals(Boolean.TRUE, evaluate("=A4>=5"));
+	}
+
+	@Test
+	void convertsOperands() {
+		assertEquals(3.0, evaluate("=A1+B1"));
+		assertEquals(4.0, evaluate("=A1+A3"));
+		assertEquals(5.0, evaluate("=\"2\"+A1"));
+		assertEquals("3abc", evaluate("=A1&A2"));
+		assertEquals("2.5", evaluate("=10/4&\"\""));
+		assertSame(Expr.ERROR, evaluate("=A2+1"));
+		assertSame(Expr.ERROR, evaluate("=1/0"));
+	}
+
+	@Test
+	void appliesFunctions() {
+		// text and booleans inside ranges are ignored
+		assertEquals(8.0, evaluate("=SUM(A1:A4)"));
+		assertEquals(4.0, evaluate("=AVERAGE(A1:A4)"));
+		assertEquals(3.0, evaluate("=MIN(A1:A4)"));
+		assertEquals(5.0, evaluate("=MAX(A1:A4,1)"));
+		assertEquals(0.0, evaluate("=MAX(B1:B3)"));
+		assertSame(Expr.ERROR, evaluate("=AVERAGE(B1:B3)"));
+		assertEquals("big", evaluate("=IF(A1>2,\"big\",\"small\")"));
+		assertEquals(Boolean.FALSE, evaluate("=IF(A1>5,1)"));
+		assertSame(Expr.ERROR, evaluate("=IF(A2,1,2)"));
+		assertSame(Expr.ERROR, evaluate("=SUM(A1:A10)"));
+	}
+
+	@Test
+	void reportsTheCellsRead() throws FormulaException {
+		List<CellRange> references = Formula.parse("=A1+SUM($B$2:C3)*D4").references();
+		assertEquals(3, references.size());
+		assertEquals("0 0 0 0", corners(references.get(0)));
+		assertEquals("1 1 2 2", corners(references.get(1)));
+		assertEquals("3 3 3 3", corners(references.get(2)));
+	}
+
+	@Test
+	void rejectsMalformedFormulas() {
+		for (String formula : List.of("=1+", "=(1", "=1)", "=FOO(1)", "=SUM()", "=IF(1)", "=\"abc", "=A0", "=1 2"))
+			assertThrows(FormulaException.class, () -> Formula.parse(formula), formula);
+	}
+
+	private static String corners(CellRange range) {
+		return range.topRow + " " + range.topCol + " " + range.botRow + " " + range.botCol;
+	}
+
+	private static Object evaluate(String formula) {
+		try {
+			return Formula.parse(formula).evaluate(cells);
+		} catch (FormulaException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package tp1.impl.engine.formula;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ValuesTest {
+
+	@Test
+	void isNumberAgreesWithParseDoubleOnDecimals() {
+		var candidates = List.of("0", "42", "-7", "+3", "1.", ".5", "1.5e3", "1E-2", "2e+4", " 12 ", "3f", "4D",
+				"", " ", "-", ".", "e3", "1e", "1e+", "1.2.3", "12abc", "0x1F", "1_000", "--1", "1f2");
+		for (String s : candidates)
+			assertEquals(parses(s), Values.isNumber(s), s);
+	}
+
+	@Test
+	void toNumber() {
+		assertEquals(2.5, Values.toNumber(2.5));
+		assertEquals(1.0, Values.toNumber(true));
+		assertEquals(0.0, Values.toNumber(false));
+		assertEquals(0.0, Values.toNumber(""));
+		assertEquals(12.0, Values.toNumber(" 12 "));
+		assertTrue(Double.isNaN(Values.toNumber("abc")));
+		assertTrue(Double.isNaN(Values.toNumber("NaN")));
+		assertTrue(Double.isNaN(Values.toNumber(Expr.ERROR)));
+	}
+
+	@Test
+	void isNumberRejectsTextAndSpecialValues() {
+		assertFalse(Values.isNumber("true"));
+		assertFalse(Values.isNumber("A1"));
+		assertFalse(Values.isNumber("NaN"));
+		assertFalse(Values.isNumber("Infinity"));
+	}
+
+	private static boolean parses(String s) {
+		try {
+			Double.parseDouble(s);
+			return true;
+		} catch (NumberFormatException x) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package tp1.server.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.User;
+
+/**
+ * Recovery of journals kept under -Dtp1.persistence.dir, which snapshot every
+ * -Dtp1.persistence.snapshot.records (10) operations, as set for the tests in the pom.
+ * A journal is left behind without closing it, as a crashed server would.
+ */
+class JournalTest {
+
+	@Test
+	void recoversLoggedOperations() {
+		String name = uniqueName();
+		var users = new Users(name);
+		put(users, 0, 5);
+		users.delete("user2");
+
+		assertEquals(users.names(), new Users(name).names());
+	}
+
+	@Test
+	void recoversUpToTornFinalRecord() throws IOException {
+		String name = uniqueName();
+		put(new Users(name), 0, 5);
+
+		Path last = lastSegment(name);
+		try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		var recovered = new Users(name);
+		assertEquals(names(0, 4), recovered.names());
+
+		// appends go to a new segment, so the torn record does not hide them
+		put(recovered, 4, 6);
+		assertTrue(lastSegment(name).compareTo(last) != 0);
+		assertEquals(names(0, 6), new Users(name).names());
+	}
+
+	@Test
+	void stopsReplayAtCorruptRecord() throws IOException {
+		String name = uniqueName();
+		put(new Users(name), 0, 3);
+
+		Path last = lastSegment(name);
+		byte[] bytes = Files.readAllBytes(last);
+		bytes[bytes.length - 2] ^= 1;
+		Files.write(last, bytes);
+
+		var replayed = new ArrayList<byte[]>();
+		assertEquals(2, WriteAheadLog.replay(dir(name), 0, replayed::add));
+		assertEquals(names(0, 2), new Users(name).names());
+	}
+
+	@Test
+	void recoversFromSnapshotAndDeletesOlderSegments() throws Exception {
+		String name = uniqueName();
+		var users = new Users(name);
+		put(users, 0, 15);
+
+		long snapshot = awaitSnapshot(name);
+		assertTrue(snapshot > 0);
+		assertTrue(WriteAheadLog.segments(dir(name)).stream().allMatch(s -> s >= snapshot));
+
+		var recovered = new Users(name);
+		assertEquals(names(0, 15), recovered.names());
+
+		put(recovered, 15, 17);
+		assertEquals(names(0, 17), new Users(name).names());
+	}
+
+	/**
+	 * Waits for the snapshot to be written and the segments it holds to be deleted.
+	 * @return the segment at which the snapshot was taken
+	 */
+	private static long awaitSnapshot(String name) throws Exception {
+		for (int i = 0; i < 500; i++) {
+			List<Long> snapshots;
+			try (Stream<Path> files = Files.list(dir(name))) {
+				snapshots = files.map(f -> f.getFileName().toString())
+						.filter(f -> f.matches(Journal.SNAPSHOT_PREFIX + "\\d+"))
+						.map(f -> Long.parseLong(f.substring(Journal.SNAPSHOT_PREFIX.length())))
+						.collect(Collectors.toList());
+			}
+			if (snapshots.size() == 1) {
+				long snapshot = snapshots.get(0);
+				if (WriteAheadLog.segments(dir(name)).stream().allMatch(s -> s >= snapshot))
+					return snapshot;
+			}
+			Thread.sleep(10);
+		}
+		throw new AssertionError("No snapshot of " + name);
+	}
+
+	private static void put(Users users, int from, int to) {
+		var committed = new ArrayList<CompletableFuture<Void>>();
+		for (int i = from; i < to; i++)
+			committed.add(users.put("user" + i));
+		committed.forEach(CompletableFuture::join);
+	}
+
+	private static Map<String, String> names(int from, int to) {
+		var names = new HashMap<String, String>();
+		for (int i = from; i < to; i++)
+			names.put("user" + i, "User user" + i);
+		return names;
+	}
+
+	private static Path lastSegment(String name) throws IOException {
+		List<Long> segments = WriteAheadLog.segments(dir(name));
+		return WriteAheadLog.segmentFile(dir(name), segments.get(segments.size() - 1));
+	}
+
+	private static Path dir(String name) {
+		return Paths.get(System.getProperty("tp1.persistence.dir"), name);
+	}
+
+	private static String uniqueName() {
+		return "test-" + System.nanoTime();
+	}
+
+	/**
+	 * Users kept as the users resource keeps them: operations are applied and appended under the same lock.
+	 */
+	private static class Users {
+		private final Map<String, User> users = new HashMap<>();
+		private final Journal<UserRecord[], UserRecord> journal;
+
+		Users(String name) {
+			journal = new Journal<>(name, UserRecord.class, new JsonSnapshots<>(UserRecord[].class));
+			journal.recover(this::restore, this::replay, this::snapshot);
+		}
+
+		synchronized CompletableFuture<Void> put(String userId) {
+			User user = new User(userId, "User " + userId, userId + "@domain", "pwd");
+			users.put(userId, user);
+			return journal.append(UserRecord.put(userId, user));
+		}
+
+		synchronized void delete(String userId) {
+			users.remove(userId);
+			journal.append(UserRecord.deleted(userId)).join();
+		}
+
+		synchronized Map<String, String> names() {
+			return users.values().stream().collect(Collectors.toMap(User::getUserId, User::getFullName));
+		}
+
+		private synchronized void restore(UserRecord[] snapshot) {
+			for (UserRecord r : snapshot)
+				users.put(r.getUserId(), r.getUser());
+		}
+
+		private synchronized void replay(UserRecord r) {
+			if (r.getType() == UserRecord.Type.PUT)
+				users.put(r.getUserId(), r.getUser());
+			else
+				users.remove(r.getUserId());
+		}
+
+		private synchronized UserRecord[] snapshot() {
+			return users.entrySet().stream().map(e -> UserRecord.put(e.getKey(), e.getValue())).toArray(UserRecord[]::new);
+		}
+	}
+}
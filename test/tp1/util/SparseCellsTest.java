@@ -0,0 +1,94 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SparseCellsTest {
+
+	@Test
+	void emptyCells() {
+		var cells = new SparseCells();
+		assertEquals("", cells.get(0, 0));
+
+		cells.put(0, 0, "x");
+		cells.put(0, 0, "");
+		cells.put(1, 1, null);
+		assertEquals("", cells.get(0, 0));
+		assertEquals(0, cells.size());
+	}
+
+	@Test
+	void distinguishesRowsAndColumns() {
+		var cells = new SparseCells();
+		cells.put(1, 2, "a");
+		cells.put(2, 1, "b");
+		cells.put(Integer.MAX_VALUE, Integer.MAX_VALUE, "c");
+		assertEquals("a", cells.get(1, 2));
+		assertEquals("b", cells.get(2, 1));
+		assertEquals("c", cells.get(Integer.MAX_VALUE, Integer.MAX_VALUE));
+		assertEquals("", cells.get(1, 1));
+	}
+
+	/**
+	 * Random puts and removals over few keys, so that probe sequences collide, wrap around the table
+	 * and are shifted back by removals, checked against a HashMap after every operation.
+	 */
+	@Test
+	void matchesMapUnderCollisions() {
+		for (int keySpace : new int[] { 3, 8, 24, 200 })
+			for (long seed = 0; seed < 20; seed++) {
+				var random = new Random(seed);
+				var cells = new SparseCells();
+				var model = new HashMap<Long, String>();
+
+				for (int op = 0; op < 2_000; op++) {
+					int row = random.nextInt(keySpace), col = random.nextInt(3);
+					String value = random.nextInt(3) == 0 ? "" : "v" + op;
+					cells.put(row, col, value);
+					if (value.isEmpty())
+						model.remove(key(row, col));
+					else
+						model.put(key(row, col), value);
+
+					assertEquals(model.size(), cells.size());
+					for (int r = 0; r < keySpace; r++)
+						for (int c = 0; c < 3; c++)
+							assertEquals(model.getOrDefault(key(r, c), ""), cells.get(r, c));
+				}
+				assertEquals(model, contents(cells));
+			}
+	}
+
+	@Test
+	void copiesAreIndependent() {
+		var cells = new SparseCells();
+		for (int i = 0; i < 100; i++)
+			cells.put(i, i, "v" + i);
+
+		var copy = new SparseCells(cells);
+		copy.put(0, 0, "");
+		copy.put(100, 100, "new");
+
+		assertEquals(100, cells.size());
+		assertEquals("v0", cells.get(0, 0));
+		assertEquals("", cells.get(100, 100));
+		assertEquals(100, copy.size());
+		assertEquals("", copy.get(0, 0));
+		assertEquals("new", copy.get(100, 100));
+	}
+
+	private static Map<Long, String> contents(SparseCells cells) {
+		var contents = new HashMap<Long, String>();
+		cells.forEach((row, col, value) -> contents.put(key(row, col), value));
+		return contents;
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | col;
+	}
+}